@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.application;
+
+import com.tang.base.exception.BaseErrorCode;
+import com.tang.base.exception.BaseException;
+import com.tang.ssh.domain.entity.SshHostResult;
+import com.tang.ssh.domain.entity.SshParam;
+import com.tang.ssh.domain.service.SshHostProbe;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 批量执行器, 在多台主机上并发执行同一条命令
+ * <p>
+ * 每台主机使用一个虚拟线程, 通过{@link SshConnectionManager}获取连接, 同时执行的主机数不超过指定的并发数
+ * <p>
+ * 执行前先并行探测连接池中没有可用连接的主机，获取连接时直接使用探测结果
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/2
+ */
+@Slf4j
+public class SshBatchExecutor {
+    /**
+     * 在多台主机上并发执行命令, 每台主机执行完成后立即回调, 所有主机执行完成后返回
+     * <p>
+     * 回调按完成顺序串行调用，不需要考虑线程安全
+     *
+     * @param sshParams   主机的连接参数
+     * @param command     需要执行的命令
+     * @param concurrency 最大并发数
+     * @param consumer    单台主机执行结果的回调
+     */
+    public static void sendCommand(List<SshParam> sshParams, String command, int concurrency,
+        Consumer<SshHostResult> consumer) {
+        log.info("start send command to {} hosts, concurrency: {}", sshParams.size(), concurrency);
+        long startTime = System.nanoTime();
+        probe(sshParams);
+        Semaphore permits = new Semaphore(Math.max(concurrency, 1));
+        Object consumerLock = new Object();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (SshParam sshParam : sshParams) {
+                permits.acquire();
+                executor.execute(() -> {
+                    try {
+                        SshHostResult result = sendCommand(sshParam, command);
+                        synchronized (consumerLock) {
+                            consumer.accept(result);
+                        }
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            log.warn("send command to hosts interrupted.");
+            Thread.currentThread().interrupt();
+        }
+        log.info("finish send command to {} hosts, cost {}ms", sshParams.size(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+
+    /**
+     * 在多台主机上并发执行命令
+     *
+     * @param sshParams   主机的连接参数
+     * @param command     需要执行的命令
+     * @param concurrency 最大并发数
+     * @return 所有主机的执行结果, 按完成顺序排列
+     */
+    public static List<SshHostResult> sendCommand(List<SshParam> sshParams, String command, int concurrency) {
+        List<SshHostResult> results = new ArrayList<>(sshParams.size());
+        sendCommand(sshParams, command, concurrency, results::add);
+        return results;
+    }
+
+    private static SshHostResult sendCommand(SshParam sshParam, String command) {
+        long startTime = System.nanoTime();
+        try {
+            String echo = SshConnectionManager.create(sshParam).sendCommand(command);
+            return new SshHostResult(sshParam, true, echo, 0, costMillis(startTime));
+        } catch (BaseException e) {
+            log.error("send command to {} error.", sshParam.getHost(), e);
+            return new SshHostResult(sshParam, false, "", e.getErrorCode().getCode(), costMillis(startTime));
+        } catch (RuntimeException e) {
+            log.error("send command to {} error.", sshParam.getHost(), e);
+            return new SshHostResult(sshParam, false, "", BaseErrorCode.SYSTEM_INTERNAL_ERROR.getCode(),
+                costMillis(startTime));
+        }
+    }
+
+    private static void probe(List<SshParam> sshParams) {
+        List<SshParam> unconnected = sshParams.stream()
+            .filter(sshParam -> !SshConnectionManager.hasAliveConnection(sshParam))
+            .toList();
+        if (unconnected.isEmpty()) {
+            return;
+        }
+        int timeoutSecond = unconnected.stream().mapToInt(SshParam::getTimeoutSecond).max().orElse(0);
+        SshHostProbe.probeAll(unconnected.stream().map(SshParam::getProbeTarget).toList(), timeoutSecond);
+    }
+
+    private static long costMillis(long startTime) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+}
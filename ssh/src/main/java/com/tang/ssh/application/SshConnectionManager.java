@@ -7,32 +7,56 @@ package com.tang.ssh.application;
 import com.tang.base.utils.CloseUtils;
 import com.tang.ssh.domain.entity.BasicAuthParam;
 import com.tang.ssh.domain.entity.SshParam;
+import com.tang.ssh.domain.entity.SshPoolConfig;
+import com.tang.ssh.domain.entity.SshTransportProfile;
 import com.tang.ssh.domain.exception.SshErrorCode;
 import com.tang.ssh.domain.exception.SshTangException;
 import com.tang.ssh.domain.service.SshConnection;
+import com.tang.ssh.domain.service.SshHostProbe;
+import com.tang.ssh.domain.service.SshMetrics;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.sshd.client.ClientBuilder;
 import org.apache.sshd.client.SshClient;
 import org.apache.sshd.client.auth.UserAuthFactory;
 import org.apache.sshd.client.auth.keyboard.UserAuthKeyboardInteractiveFactory;
 import org.apache.sshd.client.auth.password.UserAuthPasswordFactory;
-import org.apache.sshd.client.config.hosts.HostConfigEntry;
 import org.apache.sshd.client.keyverifier.AcceptAllServerKeyVerifier;
 import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.client.session.forward.ExplicitPortForwardingTracker;
+import org.apache.sshd.common.AttributeRepository;
+import org.apache.sshd.common.kex.BuiltinDHFactories;
+import org.apache.sshd.common.session.Session;
+import org.apache.sshd.common.session.SessionListener;
+import org.apache.sshd.common.util.net.SshdSocketAddress;
 import org.apache.sshd.core.CoreModuleProperties;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * ssh管理器
  * <p>
+ * 连接池中每个主机对应一个创建连接的future，同一主机的并发请求共享同一次连接过程，不同主机之间互不阻塞，
+ * 创建失败的future会被移除，下次请求重新创建
+ * <p>
+ * 所有连接共享同一个{@link SshClient}，同一跳板机后面的所有主机共享同一个跳板机session，见{@link SshJumpSession}
+ * <p>
+ * 连接池有总数与单主机数量上限，达到上限时把最久未使用的空闲连接移出连接池；后台定期关闭已断开与空闲超时的session，
+ * 空闲连接依靠心跳保活，见{@link SshPoolConfig}
+ * <p>
+ * 调用方可能一直持有获取到的连接，因此回收时只关闭session而不关闭连接，连接下次使用时自动重新建立session，
+ * 见{@link SshConnection#suspend(long)}
  *
  * @author TangAn
  * @version 0.1
@@ -40,32 +64,234 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 @Slf4j
 public class SshConnectionManager {
-    private static final Map<String, SshConnection> CONN_POOL = new ConcurrentHashMap<>();
+    private static final Map<String, CompletableFuture<SshConnection>> CONN_POOL = new ConcurrentHashMap<>();
+
+    /**
+     * 跳板机session, key为user@host:port, 同一跳板机后面的所有目标主机共享
+     */
+    private static final Map<String, SshJumpSession> JUMP_SESSIONS = new ConcurrentHashMap<>();
+
+    /**
+     * 创建连接时携带的传输配置, session创建后、密钥交换前按配置设置算法
+     */
+    private static final AttributeRepository.AttributeKey<SshTransportProfile> TRANSPORT_PROFILE =
+        new AttributeRepository.AttributeKey<>();
+
+    /**
+     * 每个主机在连接池中的连接数, key为host:port, 与连接池中的条目同时增减
+     */
+    private static final Map<String, AtomicInteger> HOST_COUNTS = new ConcurrentHashMap<>();
+
+    /**
+     * 连接池中的连接总数, 与连接池中的条目同时增减
+     */
+    private static final AtomicInteger TOTAL_COUNT = new AtomicInteger();
+
+    /**
+     * 等待连接创建完成的线程数
+     */
+    private static final AtomicInteger WAITING = new AtomicInteger();
+
+    private static volatile SshPoolConfig poolConfig = SshPoolConfig.builder().build();
+
+    private static final SshClient CLIENT = createClient();
 
-    private static final Lock LOCK = new ReentrantLock();
+    /**
+     * 后台维护线程, 定期清理已断开和空闲超时的连接
+     */
+    private static final ScheduledExecutorService MAINTAINER = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("ssh-pool-maintainer").daemon().factory());
 
-    private static final Map<String, Lock> HOST_LOCKS = new HashMap<>();
+    private static ScheduledFuture<?> evictTask;
+
+    static {
+        setPoolConfig(poolConfig);
+    }
 
     /**
      * 根据连接参数创建ssh连接, 首先从连接池获取, 释放连接也请优先使用{@link SshConnectionManager#releaseSshConnection(SshConnection)}释放
+     * <p>
+     * 连接池中已有可用的连接时直接返回，只有需要新建连接时才探测主机是否可达
      *
      * @param sshParam 连接参数
      * @return ssh连接
      * @throws SshTangException 创建失败
      */
     public static SshConnection create(SshParam sshParam) throws SshTangException {
-        sshParam.check();
         String connName = getConnName(sshParam);
-        if (CONN_POOL.containsKey(connName)) {
-            SshConnection sshConnection = CONN_POOL.get(connName);
-            // 如果被单独调用了连接的关闭方法，则重新创建
+        while (true) {
+            CompletableFuture<SshConnection> future = CONN_POOL.get(connName);
+            if (future == null) {
+                CompletableFuture<SshConnection> created = new CompletableFuture<>();
+                future = reserve(connName, created);
+                if (future == created) {
+                    connect(sshParam, connName, created);
+                }
+            }
+            SshConnection sshConnection = await(future);
+            // session已断开或者被回收的连接在下次使用时重新建立session, 只有被单独调用了关闭方法的连接才重新创建
+            if (!sshConnection.isClose()) {
+                return sshConnection;
+            }
+            if (remove(connName, future)) {
+                SshMetrics.recordReconnect(sshParam.getHost());
+            }
+        }
+    }
+
+    /**
+     * 设置连接池配置, 心跳配置只对之后创建的连接生效
+     *
+     * @param sshPoolConfig 连接池配置
+     */
+    public static synchronized void setPoolConfig(SshPoolConfig sshPoolConfig) {
+        poolConfig = sshPoolConfig;
+        applyHeartbeat(CLIENT, sshPoolConfig);
+        if (evictTask != null) {
+            evictTask.cancel(false);
+        }
+        int interval = Math.max(sshPoolConfig.getEvictIntervalSecond(), 1);
+        evictTask = MAINTAINER.scheduleWithFixedDelay(SshConnectionManager::evict, interval, interval,
+            TimeUnit.SECONDS);
+    }
+
+    /**
+     * 清理连接池, 后台会定期执行
+     * <p>
+     * 移除已关闭的连接, 关闭已断开的session和空闲超时的session, 以及其余连接上空闲超时的sftp子系统,
+     * 关闭session的连接仍留在连接池中, 下次使用时重新建立session
+     */
+    public static void evict() {
+        long maxIdleMillis = TimeUnit.SECONDS.toMillis(poolConfig.getMaxIdleSecond());
+        CONN_POOL.forEach((connName, future) -> {
+            SshConnection sshConnection = getConnected(future);
+            if (sshConnection == null) {
+                return;
+            }
             if (sshConnection.isClose()) {
-                CONN_POOL.remove(connName);
-                return create(sshParam, connName);
+                remove(connName, future);
+                return;
+            }
+            if (!sshConnection.isAlive()) {
+                if (sshConnection.suspend(0)) {
+                    log.info("close dead ssh({}) session.", connName);
+                }
+            } else if (maxIdleMillis > 0 && sshConnection.suspend(maxIdleMillis)) {
+                log.info("close idle ssh({}) session.", connName);
+            } else {
+                sshConnection.evictIdleSftp();
+            }
+        });
+    }
+
+    /**
+     * 占用连接池中的位置, 达到上限时把最久未使用的空闲连接移出连接池并关闭其session, 没有空闲连接则创建失败
+     * <p>
+     * 通过计数器占用名额, 不持有全局锁, 只有连接池已满时才遍历连接池查找空闲连接;
+     * 被移出的连接不会被关闭, 持有该连接的调用方下次使用时重新建立session
+     *
+     * @param connName 连接名
+     * @param created  新建的future
+     * @return 连接池中的future, 与created相同时由调用方负责创建连接
+     * @throws SshTangException 连接池已满
+     */
+    private static CompletableFuture<SshConnection> reserve(String connName, CompletableFuture<SshConnection> created)
+        throws SshTangException {
+        SshPoolConfig config = poolConfig;
+        String hostName = getHostName(connName);
+        while (true) {
+            CompletableFuture<SshConnection> future = CONN_POOL.get(connName);
+            if (future != null) {
+                return future;
+            }
+            AtomicInteger hostCount = HOST_COUNTS.computeIfAbsent(hostName, name -> new AtomicInteger());
+            boolean hostFull = !tryIncrement(hostCount, config.getMaxPerHost());
+            if (!hostFull) {
+                if (tryIncrement(TOTAL_COUNT, config.getMaxTotal())) {
+                    future = CONN_POOL.putIfAbsent(connName, created);
+                    if (future == null) {
+                        return created;
+                    }
+                    // 其他线程已经放入了同名连接, 归还名额
+                    TOTAL_COUNT.decrementAndGet();
+                    hostCount.decrementAndGet();
+                    return future;
+                }
+                hostCount.decrementAndGet();
+            }
+            if (!evictLeastRecentIdle(hostFull ? hostName : null, connName)) {
+                log.error("ssh connection pool is full, can not create ssh({}).", connName);
+                throw new SshTangException(SshErrorCode.CONN_POOL_FULL, connName);
             }
-            return sshConnection;
         }
-        return create(sshParam, connName);
+    }
+
+    private static boolean tryIncrement(AtomicInteger counter, int max) {
+        int count;
+        do {
+            count = counter.get();
+            if (count >= max) {
+                return false;
+            }
+        } while (!counter.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * 把最久未使用的空闲连接移出连接池并关闭其session
+     *
+     * @param hostName 只在该主机的连接中查找, 为null时查找所有连接
+     * @param connName 需要名额的连接名
+     * @return false表示没有空闲连接
+     */
+    private static boolean evictLeastRecentIdle(String hostName, String connName) {
+        SshConnection leastRecent = null;
+        Map.Entry<String, CompletableFuture<SshConnection>> leastRecentEntry = null;
+        for (Map.Entry<String, CompletableFuture<SshConnection>> entry : CONN_POOL.entrySet()) {
+            if (hostName != null && !hostName.equals(getHostName(entry.getKey()))) {
+                continue;
+            }
+            SshConnection sshConnection = getConnected(entry.getValue());
+            if (sshConnection != null && sshConnection.isIdle(0)
+                && (leastRecent == null || sshConnection.getLastActiveTime() < leastRecent.getLastActiveTime())) {
+                leastRecent = sshConnection;
+                leastRecentEntry = entry;
+            }
+        }
+        if (leastRecent == null) {
+            return false;
+        }
+        // 没有移除成功说明条目已被其他线程移除, 名额同样已经释放
+        if (remove(leastRecentEntry.getKey(), leastRecentEntry.getValue())) {
+            log.info("evict idle ssh({}) connection for {}.", leastRecentEntry.getKey(), connName);
+            // 移出连接池后又开始使用的连接保留session
+            leastRecent.suspend(0);
+        }
+        return true;
+    }
+
+    /**
+     * 从连接池中移除条目并归还名额
+     *
+     * @param connName 连接名
+     * @param future   连接池中的future
+     * @return false表示条目已不在连接池中
+     */
+    private static boolean remove(String connName, CompletableFuture<SshConnection> future) {
+        if (!CONN_POOL.remove(connName, future)) {
+            return false;
+        }
+        TOTAL_COUNT.decrementAndGet();
+        HOST_COUNTS.get(getHostName(connName)).decrementAndGet();
+        return true;
+    }
+
+    private static String getHostName(String connName) {
+        return connName.substring(connName.lastIndexOf('@') + 1);
+    }
+
+    private static SshConnection getConnected(CompletableFuture<SshConnection> future) {
+        return future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
     }
 
     /**
@@ -75,87 +301,271 @@ public class SshConnectionManager {
      */
     public static void releaseSshConnection(SshConnection sshConnection) {
         if (sshConnection != null) {
-            SshConnection connection = CONN_POOL.remove(getConnName(sshConnection.getSshParam()));
-            if (!connection.isClose()) {
+            String connName = getConnName(sshConnection.getSshParam());
+            CompletableFuture<SshConnection> future = CONN_POOL.get(connName);
+            if (future != null && isConnectedTo(future, sshConnection)) {
+                remove(connName, future);
+            }
+            if (!sshConnection.isClose()) {
                 CloseUtils.close(sshConnection);
             }
         }
     }
 
+    private static boolean isConnectedTo(CompletableFuture<SshConnection> future, SshConnection sshConnection) {
+        return getConnected(future) == sshConnection;
+    }
+
+    /**
+     * 连接池中是否已有到该主机的可用连接
+     *
+     * @param sshParam 连接参数
+     * @return true表示有可用连接
+     */
+    static boolean hasAliveConnection(SshParam sshParam) {
+        CompletableFuture<SshConnection> future = CONN_POOL.get(getConnName(sshParam));
+        SshConnection sshConnection = future == null ? null : getConnected(future);
+        return sshConnection != null && sshConnection.isAlive();
+    }
+
     private static String getConnName(SshParam sshParam) {
         return String.format("%s@%s:%s", sshParam.getUsername(), sshParam.getHost(), sshParam.getPort());
     }
 
+    private static SshConnection await(CompletableFuture<SshConnection> future) throws SshTangException {
+        if (future.isDone()) {
+            return join(future);
+        }
+        WAITING.incrementAndGet();
+        try {
+            return join(future);
+        } finally {
+            WAITING.decrementAndGet();
+        }
+    }
+
+    private static SshConnection join(CompletableFuture<SshConnection> future) throws SshTangException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SshTangException sshTangException) {
+                throw sshTangException;
+            }
+            throw new SshTangException(SshErrorCode.CREATE_SESSION_ERROR);
+        }
+    }
+
+    private static void connect(SshParam sshParam, String connName, CompletableFuture<SshConnection> future) {
+        try {
+            future.complete(create(sshParam, connName));
+        } catch (Throwable e) {
+            // 失败的连接不能留在连接池中，等待中的请求会收到同样的异常
+            remove(connName, future);
+            future.completeExceptionally(e);
+        }
+    }
+
     private static SshConnection create(SshParam sshParam, String connName) throws SshTangException {
-        LOCK.lock();
-        log.info("get ssh manager lock");
-        if (CONN_POOL.containsKey(connName)) {
-            SshConnection sshConnection = CONN_POOL.get(connName);
-            LOCK.unlock();
-            return sshConnection;
-        }
-        if (!HOST_LOCKS.containsKey(connName)) {
-            HOST_LOCKS.put(connName, new ReentrantLock());
-        }
-        LOCK.unlock();
-        log.info("release ssh manager lock");
-        Lock lock = HOST_LOCKS.get(connName);
-        lock.lock();
-        log.info("start create ssh({}) session, get lock.", connName);
-        SshClient client = createClient();
-        ClientSession session;
+        ClientSession session = openSession(sshParam, connName);
         try {
+            return new SshConnection(sshParam, session, param -> openSession(param, connName));
+        } catch (SshTangException e) {
+            CloseUtils.close(session);
+            throw e;
+        }
+    }
+
+    private static ClientSession openSession(SshParam sshParam, String connName) throws SshTangException {
+        log.info("start create ssh({}) session.", connName);
+        ClientSession session = null;
+        try {
+            sshParam.check();
             BasicAuthParam sshJumpParam = sshParam.getSshJumpParam();
-            if (sshParam.getSshJumpParam() != null) {
-                return createByJumper(sshParam, connName, client, sshJumpParam);
+            if (sshJumpParam != null) {
+                session = createByJumper(sshParam, sshJumpParam);
+            } else {
+                session = createSession(sshParam);
             }
-            session = createSession(sshParam, client);
-            SshConnection sshConnection = new SshConnection(sshParam, client, session);
-            CONN_POOL.put(connName, sshConnection);
             log.info("finish create ssh({}) session.", connName);
-            return sshConnection;
+            return session;
         } catch (IOException e) {
             log.error("create ssh({}) session error.", connName, e);
+            CloseUtils.close(session);
+            // 主机可能刚刚变得不可达，下次重新探测
+            BasicAuthParam probeTarget = sshParam.getProbeTarget();
+            SshHostProbe.invalidate(probeTarget.getHost(), probeTarget.getPort());
             handleException(e.getMessage());
             throw new SshTangException(SshErrorCode.CREATE_SESSION_ERROR);
-        } finally {
-            lock.unlock();
-            log.info("release ssh({}) create lock.", connName);
+        } catch (SshTangException e) {
+            CloseUtils.close(session);
+            throw e;
+        }
+    }
+
+    private static ClientSession createByJumper(SshParam sshParam, BasicAuthParam sshJumpParam) throws IOException {
+        SshJumpSession jumpSession = acquireJumpSession(sshJumpParam);
+        log.info("create conn to {} by ssh jumper: {}", sshParam.getHost(), jumpSession.getJumpName());
+        ExplicitPortForwardingTracker tracker = null;
+        ClientSession sessionByJumper = null;
+        try {
+            AttributeRepository context = transportContext(sshParam);
+            tracker = jumpSession.forward(CLIENT, context,
+                new SshdSocketAddress(sshParam.getHost(), sshParam.getPort()), sshParam.getTimeoutSecond());
+            SshdSocketAddress bound = tracker.getBoundAddress();
+            sessionByJumper = CLIENT.connect(sshParam.getUsername(), bound.getHostName(), bound.getPort(), context, null)
+                .verify(sshParam.getTimeoutSecond(), TimeUnit.SECONDS).getSession();
+        } catch (IOException e) {
+            CloseUtils.close(tracker);
+            releaseJumpSession(jumpSession);
+            throw e;
         }
+        // 目标主机session关闭时关闭端口转发，没有目标主机使用时关闭跳板机session
+        ExplicitPortForwardingTracker forwarding = tracker;
+        sessionByJumper.addCloseFutureListener(future -> {
+            CloseUtils.close(forwarding);
+            releaseJumpSession(jumpSession);
+        });
+        return auth(sshParam, sessionByJumper);
     }
 
-    private static SshConnection createByJumper(SshParam sshParam, String connName, SshClient client,
-        BasicAuthParam sshJumpParam) throws IOException, SshTangException {
-        client.addPasswordIdentity(sshJumpParam.getPassword());
-        String proxyJump = "%s@%s:%s".formatted(sshJumpParam.getUsername(), sshJumpParam.getHost(),
+    private static SshJumpSession acquireJumpSession(BasicAuthParam sshJumpParam) {
+        String jumpName = "%s@%s:%s".formatted(sshJumpParam.getUsername(), sshJumpParam.getHost(),
             sshJumpParam.getPort());
-        log.info("create conn to {} by ssh jumper: {}", sshParam.getHost(), proxyJump);
-        ClientSession sessionByJumper =
-            client.connect(new HostConfigEntry("", sshParam.getHost(), sshParam.getPort(),
-                    sshParam.getUsername(), proxyJump))
-                .verify().getSession();
-        sessionByJumper.addPasswordIdentity(sshParam.getPassword());
-        sessionByJumper.auth().verify();
-        SshConnection sshConnection = new SshConnection(sshParam, client, sessionByJumper);
-        CONN_POOL.put(connName, sshConnection);
-        log.info("finish create ssh({}) session by jumper.", connName);
-        return sshConnection;
+        while (true) {
+            SshJumpSession jumpSession =
+                JUMP_SESSIONS.computeIfAbsent(jumpName, name -> new SshJumpSession(name, sshJumpParam));
+            if (jumpSession.retain()) {
+                return jumpSession;
+            }
+            // 最后一个使用者刚好释放了该跳板机session，重新创建
+            JUMP_SESSIONS.remove(jumpName, jumpSession);
+        }
+    }
+
+    private static void releaseJumpSession(SshJumpSession jumpSession) {
+        if (jumpSession.release()) {
+            JUMP_SESSIONS.remove(jumpSession.getJumpName(), jumpSession);
+            jumpSession.close();
+        }
+    }
+
+    /**
+     * 连接池中的连接数, 包括正在创建的连接
+     *
+     * @return 连接数
+     */
+    public static int getPoolSize() {
+        return CONN_POOL.size();
+    }
+
+    /**
+     * 等待连接的线程数, 包括等待连接创建完成与等待租用shell通道的线程
+     *
+     * @return 线程数
+     */
+    public static int getWaitingCount() {
+        int waiting = WAITING.get();
+        for (CompletableFuture<SshConnection> future : CONN_POOL.values()) {
+            SshConnection sshConnection = getConnected(future);
+            if (sshConnection != null) {
+                waiting += sshConnection.getWaitingCount();
+            }
+        }
+        return waiting;
+    }
+
+    /**
+     * 正在使用的跳板机session数量
+     *
+     * @return 跳板机session数量
+     */
+    public static int getJumpSessionSize() {
+        return JUMP_SESSIONS.size();
     }
 
+    /**
+     * 所有连接共享一个客户端，各主机的session复用客户端的io线程、选择器与定时器
+     * <p>
+     * io线程数与cpu核数一致
+     *
+     * @return 启动好的客户端
+     */
     private static SshClient createClient() {
         SshClient client = SshClient.setUpDefaultClient();
-        CoreModuleProperties.NIO_WORKERS.set(client, 1);
+        CoreModuleProperties.NIO_WORKERS.set(client, Runtime.getRuntime().availableProcessors());
+        applyHeartbeat(client, poolConfig);
         client.setServerKeyVerifier(AcceptAllServerKeyVerifier.INSTANCE);
         // 密码方式登录时，只使用密码认证，密码认证包含全密码、键盘交互式两种方式
         List<UserAuthFactory> userAuthFactories = new ArrayList<>();
         userAuthFactories.add(UserAuthPasswordFactory.INSTANCE);
         userAuthFactories.add(UserAuthKeyboardInteractiveFactory.INSTANCE);
         client.setUserAuthFactories(userAuthFactories);
+        client.addSessionListener(new SessionListener() {
+            @Override
+            public void sessionCreated(Session session) {
+                applyTransportProfile(session);
+            }
+        });
         client.start();
         return client;
     }
 
+    /**
+     * 空闲的session定期发送keepalive@openssh.com心跳，超时未回复时session被关闭，由后台清理或下次获取时重新创建
+     *
+     * @param client        客户端
+     * @param sshPoolConfig 连接池配置
+     */
+    private static void applyHeartbeat(SshClient client, SshPoolConfig sshPoolConfig) {
+        CoreModuleProperties.HEARTBEAT_INTERVAL.set(client,
+            Duration.ofSeconds(Math.max(sshPoolConfig.getHeartbeatSecond(), 0)));
+        CoreModuleProperties.HEARTBEAT_REPLY_WAIT.set(client,
+            Duration.ofSeconds(Math.max(sshPoolConfig.getHeartbeatReplyWaitSecond(), 0)));
+    }
+
+    /**
+     * 客户端是共享的，算法只能设置在session上，覆盖客户端的默认算法
+     *
+     * @param session 刚创建的session, 还没有开始密钥交换
+     */
+    private static void applyTransportProfile(Session session) {
+        if (!(session instanceof ClientSession clientSession) || clientSession.getConnectionContext() == null) {
+            return;
+        }
+        SshTransportProfile profile = clientSession.getConnectionContext().getAttribute(TRANSPORT_PROFILE);
+        if (profile == null || profile == SshTransportProfile.DEFAULT) {
+            return;
+        }
+        if (profile.getCiphers() != null) {
+            session.setCipherFactoriesNames(profile.getCiphers());
+        }
+        if (profile.getMacs() != null) {
+            session.setMacFactoriesNames(profile.getMacs());
+        }
+        if (profile.getCompressions() != null) {
+            session.setCompressionFactoriesNames(profile.getCompressions());
+        }
+        if (profile.getKeyExchanges() != null) {
+            session.setKeyExchangeFactories(profile.getKeyExchanges().stream()
+                .map(BuiltinDHFactories::fromFactoryName)
+                .filter(factory -> factory != null && factory.isSupported())
+                .map(ClientBuilder.DH2KEX)
+                .toList());
+        }
+        if (profile.getSignatures() != null) {
+            session.setSignatureFactoriesNames(profile.getSignatures());
+        }
+        log.info("apply {} transport profile to {}.", profile.getProfileName(), clientSession.getConnectAddress());
+    }
+
+    private static AttributeRepository transportContext(SshParam sshParam) {
+        return AttributeRepository.ofKeyValuePair(TRANSPORT_PROFILE, sshParam.getTransportProfile());
+    }
+
     private static void handleException(String message) throws SshTangException {
+        if (message == null) {
+            return;
+        }
         if (message.contains("algorithms")) {
             throw new SshTangException(SshErrorCode.SERVER_ALGORITHMS_UN_SUPPORT);
         }
@@ -164,13 +574,22 @@ public class SshConnectionManager {
         }
     }
 
-    private static ClientSession createSession(SshParam sshParam, SshClient client) throws IOException {
-        ClientSession session;
-        session = client.connect(sshParam.getUsername(), sshParam.getHost(), sshParam.getPort())
+    private static ClientSession createSession(SshParam sshParam) throws IOException {
+        ClientSession session = CLIENT.connect(sshParam.getUsername(), sshParam.getHost(), sshParam.getPort(),
+            transportContext(sshParam), null)
             .verify(sshParam.getTimeoutSecond(), TimeUnit.SECONDS)
             .getSession();
-        session.addPasswordIdentity(sshParam.getPassword());
-        session.auth().verify(sshParam.getTimeoutSecond(), TimeUnit.SECONDS);
-        return session;
+        return auth(sshParam, session);
+    }
+
+    private static ClientSession auth(SshParam sshParam, ClientSession session) throws IOException {
+        try {
+            session.addPasswordIdentity(sshParam.getPassword());
+            session.auth().verify(sshParam.getTimeoutSecond(), TimeUnit.SECONDS);
+            return session;
+        } catch (IOException e) {
+            CloseUtils.close(session);
+            throw e;
+        }
     }
-}
\ No newline at end of file
+}
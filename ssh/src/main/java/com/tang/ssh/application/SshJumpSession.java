@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.application;
+
+import com.tang.base.utils.CloseUtils;
+import com.tang.ssh.domain.entity.BasicAuthParam;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.client.session.forward.ExplicitPortForwardingTracker;
+import org.apache.sshd.common.AttributeRepository;
+import org.apache.sshd.common.util.net.SshdSocketAddress;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 跳板机session
+ * <p>
+ * 同一个跳板机只建立一次连接与认证，跳板机后面的每个目标主机通过一个本地端口转发(direct-tcpip通道)连接，
+ * 按引用计数管理，最后一个目标主机的session关闭时关闭跳板机session
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/17
+ */
+@Slf4j
+final class SshJumpSession implements Closeable {
+    @Getter
+    private final String jumpName;
+
+    private final BasicAuthParam jumpParam;
+
+    private ClientSession session;
+
+    /**
+     * 使用该跳板机的目标主机数量, 为-1表示已经释放, 不能再使用
+     */
+    private final AtomicInteger refCount = new AtomicInteger();
+
+    SshJumpSession(String jumpName, BasicAuthParam jumpParam) {
+        this.jumpName = jumpName;
+        this.jumpParam = jumpParam;
+    }
+
+    /**
+     * 增加一个使用者
+     *
+     * @return false表示跳板机session已经释放, 需要重新创建
+     */
+    boolean retain() {
+        return refCount.getAndUpdate(count -> count < 0 ? count : count + 1) >= 0;
+    }
+
+    /**
+     * 减少一个使用者
+     *
+     * @return true表示已经没有使用者, 跳板机session需要关闭
+     */
+    boolean release() {
+        return refCount.decrementAndGet() == 0 && refCount.compareAndSet(0, -1);
+    }
+
+    /**
+     * 打开到目标主机的本地端口转发, 跳板机session未连接或已断开时先连接
+     *
+     * @param client        客户端
+     * @param context       连接上下文
+     * @param target        目标主机地址
+     * @param timeoutSecond 超时秒数
+     * @return 端口转发, 目标主机session关闭时需要关闭
+     * @throws IOException 连接跳板机或者打开端口转发失败
+     */
+    ExplicitPortForwardingTracker forward(SshClient client, AttributeRepository context, SshdSocketAddress target,
+        int timeoutSecond) throws IOException {
+        ClientSession jumpSession = connect(client, context, timeoutSecond);
+        return jumpSession.createLocalPortForwardingTracker(
+            new SshdSocketAddress(SshdSocketAddress.LOCALHOST_IPV4, 0), target);
+    }
+
+    private synchronized ClientSession connect(SshClient client, AttributeRepository context, int timeoutSecond)
+        throws IOException {
+        if (session != null && session.isOpen() && !session.isClosing()) {
+            return session;
+        }
+        CloseUtils.close(session);
+        log.info("start create ssh jumper({}) session.", jumpName);
+        ClientSession created = client.connect(jumpParam.getUsername(), jumpParam.getHost(), jumpParam.getPort(),
+                context, null)
+            .verify(timeoutSecond, TimeUnit.SECONDS)
+            .getSession();
+        try {
+            created.addPasswordIdentity(jumpParam.getPassword());
+            created.auth().verify(timeoutSecond, TimeUnit.SECONDS);
+        } catch (IOException e) {
+            CloseUtils.close(created);
+            throw e;
+        }
+        log.info("finish create ssh jumper({}) session.", jumpName);
+        session = created;
+        return session;
+    }
+
+    @Override
+    public synchronized void close() {
+        log.info("close ssh jumper({}) session.", jumpName);
+        CloseUtils.close(session);
+        session = null;
+    }
+}
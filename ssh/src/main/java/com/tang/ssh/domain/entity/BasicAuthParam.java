@@ -4,9 +4,9 @@
 
 package com.tang.ssh.domain.entity;
 
-import cn.hutool.core.net.NetUtil;
 import com.tang.ssh.domain.exception.SshErrorCode;
 import com.tang.ssh.domain.exception.SshTangException;
+import com.tang.ssh.domain.service.SshHostProbe;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.experimental.SuperBuilder;
@@ -21,6 +21,11 @@ import lombok.experimental.SuperBuilder;
 @Getter
 @SuperBuilder
 public class BasicAuthParam {
+    /**
+     * 探测主机是否可达的默认超时秒数
+     */
+    private static final int PROBE_TIMEOUT_SECOND = 5;
+
     private String host;
 
     @Builder.Default
@@ -36,7 +41,17 @@ public class BasicAuthParam {
      * @throws SshTangException 校验失败
      */
     public void check() throws SshTangException {
-        if (!NetUtil.ping(this.host)) {
+        check(PROBE_TIMEOUT_SECOND);
+    }
+
+    /**
+     * 校验参数是否合法, 通过tcp连接ssh端口判断主机是否可达, 探测结果会短暂缓存, 见{@link SshHostProbe}
+     *
+     * @param timeoutSecond 探测超时秒数
+     * @throws SshTangException 校验失败
+     */
+    public void check(int timeoutSecond) throws SshTangException {
+        if (!SshHostProbe.isReachable(host, port, timeoutSecond)) {
             throw new SshTangException(SshErrorCode.HOST_CONNECT_FAIL, host);
         }
     }
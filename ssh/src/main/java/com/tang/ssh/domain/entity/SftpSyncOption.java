@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.entity;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * sftp目录同步参数
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/16
+ */
+@Getter
+@Builder(toBuilder = true)
+public class SftpSyncOption {
+    /**
+     * 并行传输的sftp通道数, 每个通道依次传输多个文件
+     */
+    @Builder.Default
+    private int channelSize = 4;
+
+    /**
+     * 大小相同时是否比较摘要, 默认比较修改时间, 服务端不支持check-file扩展时依然比较修改时间
+     */
+    @Builder.Default
+    private boolean checksum = false;
+
+    /**
+     * 是否删除目标目录中源目录没有的文件与目录
+     */
+    @Builder.Default
+    private boolean delete = false;
+}
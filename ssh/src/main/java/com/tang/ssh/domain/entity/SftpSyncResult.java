@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * sftp目录同步结果, 路径均为相对同步目录的路径, 以/分隔
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/16
+ */
+@Getter
+@AllArgsConstructor
+public class SftpSyncResult {
+    /**
+     * 传输了的文件
+     */
+    private final List<String> transferred;
+
+    /**
+     * 删除了的文件与目录
+     */
+    private final List<String> deleted;
+
+    /**
+     * 没有变化而跳过的文件数
+     */
+    private final int skipped;
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.entity;
+
+import com.tang.ssh.domain.service.SftpProgressListener;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * sftp分段并行传输参数
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/16
+ */
+@Getter
+@Builder(toBuilder = true)
+public class SftpTransferOption {
+    /**
+     * 并行传输的sftp通道数, 每个通道传输文件的一段, 同样受服务端MaxSessions限制
+     */
+    @Builder.Default
+    private int channelSize = 4;
+
+    /**
+     * 每段最小字节数, 文件较小时减少分段数, 避免打开过多通道
+     */
+    @Builder.Default
+    private long minRangeSize = 16L * 1024 * 1024;
+
+    /**
+     * 单个sftp读写请求的字节数, 同一通道上会同时有多个请求在途, 在途数量由通道窗口决定
+     */
+    @Builder.Default
+    private int bufferSize = 32 * 1024;
+
+    /**
+     * 是否断点续传, 目标文件已有部分内容时, 按块校验已传输的部分, 从第一个不一致的块继续传输
+     */
+    @Builder.Default
+    private boolean resume = false;
+
+    /**
+     * 传输完成后是否校验整个文件的校验和
+     */
+    @Builder.Default
+    private boolean verify = false;
+
+    /**
+     * 断点续传校验的块大小, 不能小于256
+     */
+    @Builder.Default
+    private int blockSize = 4 * 1024 * 1024;
+
+    /**
+     * 传输进度回调, 可以为空
+     */
+    private SftpProgressListener progressListener;
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.entity;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * 回显日志策略
+ * <p>
+ * 输出很大的命令完整打印回显时，日志会成为瓶颈，拼接日志也会占用大量内存，可以关闭、截断或者抽样打印
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/17
+ */
+@Getter
+@Builder
+public class SshEchoLogPolicy {
+    /**
+     * 关闭回显日志
+     */
+    public static final SshEchoLogPolicy OFF = SshEchoLogPolicy.builder().mode(Mode.OFF).build();
+
+    /**
+     * 完整打印回显
+     */
+    public static final SshEchoLogPolicy FULL = SshEchoLogPolicy.builder().mode(Mode.FULL).build();
+
+    @Builder.Default
+    private Mode mode = Mode.TRUNCATE;
+
+    /**
+     * 截断时保留开头的字符数
+     */
+    @Builder.Default
+    private int headSize = 2048;
+
+    /**
+     * 截断时保留结尾的字符数
+     */
+    @Builder.Default
+    private int tailSize = 1024;
+
+    /**
+     * 抽样时平均每多少次回显打印一次, 打印的回显同样按截断规则处理
+     */
+    @Builder.Default
+    private int sampleRate = 100;
+
+    /**
+     * 回显日志模式
+     */
+    public enum Mode {
+        /**
+         * 不打印
+         */
+        OFF,
+
+        /**
+         * 超过长度时只打印开头与结尾, 以及回显总长度
+         */
+        TRUNCATE,
+
+        /**
+         * 按比例抽样打印
+         */
+        SAMPLE,
+
+        /**
+         * 完整打印
+         */
+        FULL
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 非交互式命令或者流水线命令的执行结果
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/2
+ */
+@Getter
+@AllArgsConstructor
+public class SshExecResult {
+    /**
+     * 命令退出码, 命令被信号终止等没有退出码的情况为-1
+     */
+    private final int exitCode;
+
+    /**
+     * 标准输出
+     */
+    private final String stdout;
+
+    /**
+     * 错误输出
+     */
+    private final String stderr;
+
+    /**
+     * 命令是否执行成功
+     *
+     * @return 退出码为0表示成功
+     */
+    public boolean isSuccess() {
+        return exitCode == 0;
+    }
+}
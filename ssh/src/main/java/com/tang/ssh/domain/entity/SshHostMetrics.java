@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * 单台主机的ssh指标快照
+ * <p>
+ * 命令耗时减去等待时间为网络与远端执行的时间，结束符等待超时次数多说明结束符匹配有问题
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/17
+ */
+@Getter
+@AllArgsConstructor
+public class SshHostMetrics {
+    private final String host;
+
+    /**
+     * 执行的命令数, 包括shell、exec与流水线命令
+     */
+    private final long commandCount;
+
+    /**
+     * 命令总耗时毫秒数, 从开始等待通道到收到完整回显
+     */
+    private final long commandTotalMillis;
+
+    /**
+     * 单条命令最大耗时毫秒数
+     */
+    private final long commandMaxMillis;
+
+    /**
+     * 命令耗时分布, key为耗时上限毫秒数(Long.MAX_VALUE表示无上限), value为耗时不超过该上限的命令数
+     */
+    private final Map<Long, Long> commandLatencyHistogram;
+
+    /**
+     * 等待shell通道与通道锁的总毫秒数, 反映锁竞争
+     */
+    private final long waitTotalMillis;
+
+    /**
+     * 等待结束符超时的次数, 超时说明回显没有以结束符结尾
+     */
+    private final long overSignTimeoutCount;
+
+    /**
+     * 收到的字节数
+     */
+    private final long bytesIn;
+
+    /**
+     * 发送的字节数
+     */
+    private final long bytesOut;
+
+    /**
+     * 重连次数, 包括shell通道重建与ssh连接重建
+     */
+    private final long reconnectCount;
+
+    /**
+     * sftp传输的字节数
+     */
+    private final long sftpBytes;
+
+    /**
+     * sftp传输的总毫秒数
+     */
+    private final long sftpTotalMillis;
+
+    /**
+     * 平均命令耗时
+     *
+     * @return 毫秒数
+     */
+    public double getCommandMeanMillis() {
+        return commandCount == 0 ? 0 : (double) commandTotalMillis / commandCount;
+    }
+
+    /**
+     * sftp平均吞吐量
+     *
+     * @return 每秒字节数
+     */
+    public double getSftpBytesPerSecond() {
+        return sftpTotalMillis == 0 ? 0 : sftpBytes * 1000.0 / sftpTotalMillis;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 批量执行命令时单个主机的执行结果
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/2
+ */
+@Getter
+@AllArgsConstructor
+public class SshHostResult {
+    /**
+     * 主机对应的连接参数
+     */
+    private final SshParam sshParam;
+
+    /**
+     * 是否执行成功
+     */
+    private final boolean success;
+
+    /**
+     * 命令回显, 失败时为空字符串
+     */
+    private final String echo;
+
+    /**
+     * 错误码, 成功时为0
+     */
+    private final int errorCode;
+
+    /**
+     * 从开始连接到收到回显的耗时毫秒数
+     */
+    private final long costMillis;
+}
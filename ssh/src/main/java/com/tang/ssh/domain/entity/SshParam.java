@@ -4,13 +4,13 @@
 
 package com.tang.ssh.domain.entity;
 
-import cn.hutool.core.net.NetUtil;
 import com.tang.ssh.domain.exception.SshErrorCode;
 import com.tang.ssh.domain.exception.SshTangException;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.experimental.SuperBuilder;
 
+import java.nio.charset.Charset;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -43,21 +43,74 @@ public class SshParam extends BasicAuthParam {
     @Builder.Default
     private String encoding = "utf-8";
 
+    /**
+     * 同一个连接上最多同时打开的shell通道数量, 即同一主机上可以并行执行的命令数
+     * <p>
+     * 受服务端单连接最大会话数限制，比如OpenSSH的MaxSessions默认为10
+     */
+    @Builder.Default
+    private int shellChannelSize = 1;
+
+    /**
+     * 同一个连接上最多同时租用的sftp子系统数量, 即同一主机上可以并行执行的sftp传输数
+     * <p>
+     * 与shell通道共同受服务端单连接最大会话数限制
+     */
+    @Builder.Default
+    private int sftpChannelSize = 4;
+
+    /**
+     * sftp子系统空闲多少秒后被关闭, 小于等于0表示不关闭空闲的子系统
+     */
+    @Builder.Default
+    private int sftpMaxIdleSecond = 300;
+
+    /**
+     * 传输配置, 决定协商的加密与压缩算法, 按网络环境选择吞吐量最高的配置
+     * <p>
+     * 只在创建连接时生效, 连接池中已有的连接不受影响
+     */
+    @Builder.Default
+    private SshTransportProfile transportProfile = SshTransportProfile.DEFAULT;
+
+    /**
+     * 回显日志策略, 默认超过长度时截断
+     */
+    @Builder.Default
+    private SshEchoLogPolicy echoLogPolicy = SshEchoLogPolicy.builder().build();
+
     /**
      * ssh跳转参数, 部分目标主机无法直接连接，需要通过ssh跳板机进行连接
      */
     private BasicAuthParam sshJumpParam;
 
     /**
-     * 检查参数是否合法
+     * 获取命令行输出编码
+     *
+     * @return 编码
+     */
+    public Charset getCharset() {
+        return Charset.forName(encoding);
+    }
+
+    /**
+     * 检查参数是否合法, 使用跳板机时只检查跳板机是否可达
      */
+    @Override
     public void check() throws SshTangException {
         if (sshJumpParam == null) {
-            if (!NetUtil.ping(getHost())) {
-                throw new SshTangException(SshErrorCode.HOST_CONNECT_FAIL);
-            }
+            check(timeoutSecond);
         } else {
-            sshJumpParam.check();
+            sshJumpParam.check(timeoutSecond);
         }
     }
+
+    /**
+     * 需要探测可达性的主机, 使用跳板机时为跳板机
+     *
+     * @return 主机参数
+     */
+    public BasicAuthParam getProbeTarget() {
+        return sshJumpParam == null ? this : sshJumpParam;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.entity;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * ssh连接池配置
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/2
+ */
+@Getter
+@Builder
+public class SshPoolConfig {
+    /**
+     * 连接池中最多的连接数
+     */
+    @Builder.Default
+    private int maxTotal = 1000;
+
+    /**
+     * 同一主机(host:port)上最多的连接数, 不同用户登录同一主机也计算在内
+     */
+    @Builder.Default
+    private int maxPerHost = 8;
+
+    /**
+     * 连接空闲多少秒后被回收, 小于等于0表示不回收空闲连接
+     */
+    @Builder.Default
+    private int maxIdleSecond = 1800;
+
+    /**
+     * 后台检查连接的间隔秒数, 清理已断开和空闲超时的连接
+     */
+    @Builder.Default
+    private int evictIntervalSecond = 30;
+
+    /**
+     * 心跳间隔秒数, 空闲连接定期发送心跳保活, 避免被防火墙或者服务端断开, 小于等于0表示不发送心跳
+     */
+    @Builder.Default
+    private int heartbeatSecond = 30;
+
+    /**
+     * 心跳最多等待回复的秒数, 超时后连接被关闭
+     */
+    @Builder.Default
+    private int heartbeatReplyWaitSecond = 10;
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.entity;
+
+import com.tang.ssh.domain.exception.SshErrorCode;
+import com.tang.ssh.domain.exception.SshTangException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * ssh传输配置, 决定与服务端协商的加密、完整性校验、压缩、密钥交换与签名算法
+ * <p>
+ * 算法按优先级排列, 为空表示使用客户端默认算法
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/17
+ */
+@Getter
+@AllArgsConstructor
+public enum SshTransportProfile {
+    /**
+     * 客户端默认算法
+     */
+    DEFAULT("default", null, null, null, null, null),
+
+    /**
+     * 局域网大文件传输, 优先使用带硬件加速的AEAD加密算法, 不压缩
+     * <p>
+     * AEAD算法自带完整性校验, 不再额外计算MAC
+     */
+    BULK_LAN("bulk-lan",
+        List.of("aes128-gcm@openssh.com", "aes256-gcm@openssh.com", "chacha20-poly1305@openssh.com", "aes128-ctr",
+            "aes256-ctr"),
+        List.of("hmac-sha2-256-etm@openssh.com", "hmac-sha2-256"),
+        List.of("none"), null, null),
+
+    /**
+     * 广域网文本传输, 回显与日志等文本压缩率高, 认证后开启zlib压缩, 服务端不支持时不压缩
+     */
+    WAN_TEXT("wan-text", null, null, List.of("zlib@openssh.com", "zlib", "none"), null, null),
+
+    /**
+     * 兼容老旧服务端, 在默认算法之后追加cbc加密、sha1密钥交换与ssh-dss签名等已不安全的算法, 仅用于无法升级的设备
+     */
+    LEGACY("legacy",
+        List.of("aes128-ctr", "aes192-ctr", "aes256-ctr", "aes128-gcm@openssh.com", "aes256-gcm@openssh.com",
+            "chacha20-poly1305@openssh.com", "aes128-cbc", "aes192-cbc", "aes256-cbc", "3des-cbc", "blowfish-cbc"),
+        List.of("hmac-sha2-256-etm@openssh.com", "hmac-sha2-512-etm@openssh.com", "hmac-sha1-etm@openssh.com",
+            "hmac-sha2-256", "hmac-sha2-512", "hmac-sha1", "hmac-sha1-96", "hmac-md5", "hmac-md5-96"),
+        null,
+        List.of("curve25519-sha256", "curve25519-sha256@libssh.org", "ecdh-sha2-nistp256", "ecdh-sha2-nistp384",
+            "ecdh-sha2-nistp521", "diffie-hellman-group-exchange-sha256", "diffie-hellman-group16-sha512",
+            "diffie-hellman-group14-sha256", "diffie-hellman-group-exchange-sha1", "diffie-hellman-group14-sha1",
+            "diffie-hellman-group1-sha1"),
+        List.of("ssh-ed25519", "ecdsa-sha2-nistp256", "ecdsa-sha2-nistp384", "ecdsa-sha2-nistp521", "rsa-sha2-512",
+            "rsa-sha2-256", "ssh-rsa", "ssh-dss"));
+
+    /**
+     * 配置名称
+     */
+    private final String profileName;
+
+    /**
+     * 加密算法
+     */
+    private final List<String> ciphers;
+
+    /**
+     * 完整性校验算法
+     */
+    private final List<String> macs;
+
+    /**
+     * 压缩算法
+     */
+    private final List<String> compressions;
+
+    /**
+     * 密钥交换算法
+     */
+    private final List<String> keyExchanges;
+
+    /**
+     * 服务端主机秘钥签名算法
+     */
+    private final List<String> signatures;
+
+    /**
+     * 根据名称获取传输配置
+     *
+     * @param profileName 配置名称, 比如bulk-lan
+     * @return 传输配置
+     * @throws SshTangException 名称不存在
+     */
+    public static SshTransportProfile of(String profileName) throws SshTangException {
+        for (SshTransportProfile profile : values()) {
+            if (profile.profileName.equalsIgnoreCase(profileName)) {
+                return profile;
+            }
+        }
+        throw new SshTangException(SshErrorCode.PARAM_ERROR);
+    }
+}
@@ -19,6 +19,10 @@ import lombok.Getter;
 @Getter
 @AllArgsConstructor
 public enum SshErrorCode implements IErrorCode {
+    COMMAND_INTERRUPTED("0017", "ssh.command.interrupted"),
+    SFTP_VERIFY_FAIL("0016", "ssh.sftp.verify.fail"),
+    CONN_POOL_FULL("0015", "ssh.conn.pool.full"),
+    COMMAND_TIMEOUT("0014", "ssh.command.timeout"),
     SFTP_HAS_CLOSE("0013", "ssh.sftp.has.close"),
     SFTP_DOWNLOAD_FAIL("0012", "ssh.sftp.download.fail"),
     SFTP_UPLOAD_FAIL("0011", "ssh.sftp.upload.fail"),
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.service;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 传输缓冲区池
+ * <p>
+ * 并发传输时复用同样大小的缓冲区，避免每次传输都申请新的内存，每种大小最多缓存{@link BufferPool#MAX_POOLED}个
+ * <p>
+ * 传输一般只使用少数几种缓冲区大小，最多缓存{@link BufferPool#MAX_SIZES}种，其他大小的缓冲区不缓存
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/16
+ */
+final class BufferPool {
+    private static final int MAX_POOLED = 64;
+
+    private static final int MAX_SIZES = 4;
+
+    private static final Map<Integer, Queue<byte[]>> POOL = new ConcurrentHashMap<>();
+
+    private BufferPool() {
+    }
+
+    /**
+     * 租用缓冲区
+     *
+     * @param size 缓冲区大小
+     * @return 缓冲区, 内容未清空
+     */
+    static byte[] lease(int size) {
+        Queue<byte[]> queue = getQueue(size);
+        byte[] bytes = queue == null ? null : queue.poll();
+        return bytes == null ? new byte[size] : bytes;
+    }
+
+    /**
+     * 归还缓冲区, 池已满时直接丢弃
+     *
+     * @param bytes 缓冲区
+     */
+    static void release(byte[] bytes) {
+        Queue<byte[]> queue = getQueue(bytes.length);
+        if (queue != null) {
+            queue.offer(bytes);
+        }
+    }
+
+    /**
+     * 获取该大小的缓冲区队列, 已缓存的大小种类达到上限时不再新增
+     *
+     * @param size 缓冲区大小
+     * @return 不缓存该大小时返回null
+     */
+    private static Queue<byte[]> getQueue(int size) {
+        Queue<byte[]> queue = POOL.get(size);
+        if (queue != null || POOL.size() >= MAX_SIZES) {
+            return queue;
+        }
+        synchronized (POOL) {
+            if (POOL.size() >= MAX_SIZES) {
+                return POOL.get(size);
+            }
+            return POOL.computeIfAbsent(size, key -> new ArrayBlockingQueue<>(MAX_POOLED));
+        }
+    }
+}
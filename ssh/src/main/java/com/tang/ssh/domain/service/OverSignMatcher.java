@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.service;
+
+import java.util.Collection;
+
+/**
+ * 命令结束符匹配器
+ * <p>
+ * 随回显到达逐字符更新，只保留去掉末尾空白后的最后几个字符，
+ * 判断是否结束时不需要复制整个回显，效果等同于: 回显.trim().endsWith(任意结束符)
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/2
+ */
+public class OverSignMatcher {
+    private final char[][] overSigns;
+
+    private final int capacity;
+
+    /**
+     * 最后一个非空白字符及其之前的字符, 环形存储
+     */
+    private final char[] tail;
+
+    private int tailEnd;
+
+    private int tailSize;
+
+    /**
+     * 最后一个非空白字符之后的空白字符, 环形存储
+     */
+    private final char[] blank;
+
+    private int blankEnd;
+
+    private int blankSize;
+
+    public OverSignMatcher(Collection<String> overSigns) {
+        this.overSigns = overSigns.stream().map(String::toCharArray).toArray(char[][]::new);
+        int max = 0;
+        for (char[] overSign : this.overSigns) {
+            max = Math.max(max, overSign.length);
+        }
+        this.capacity = Math.max(max, 1);
+        this.tail = new char[capacity];
+        this.blank = new char[capacity];
+    }
+
+    /**
+     * 追加回显
+     *
+     * @param echo 新到达的回显
+     */
+    public void append(CharSequence echo) {
+        for (int i = 0; i < echo.length(); i++) {
+            append(echo.charAt(i));
+        }
+    }
+
+    private void append(char c) {
+        // 与String.trim()保持一致, 小于等于空格的都算空白
+        if (c <= ' ') {
+            blank[blankEnd] = c;
+            blankEnd = (blankEnd + 1) % capacity;
+            blankSize = Math.min(blankSize + 1, capacity);
+            return;
+        }
+        for (int i = blankSize; i > 0; i--) {
+            pushTail(blank[Math.floorMod(blankEnd - i, capacity)]);
+        }
+        blankSize = 0;
+        pushTail(c);
+    }
+
+    private void pushTail(char c) {
+        tail[tailEnd] = c;
+        tailEnd = (tailEnd + 1) % capacity;
+        tailSize = Math.min(tailSize + 1, capacity);
+    }
+
+    /**
+     * 当前回显是否以任意结束符结尾
+     *
+     * @return true表示命令已结束
+     */
+    public boolean isOver() {
+        for (char[] overSign : overSigns) {
+            if (endsWith(overSign)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean endsWith(char[] overSign) {
+        if (overSign.length > tailSize) {
+            return false;
+        }
+        for (int i = 1; i <= overSign.length; i++) {
+            if (tail[Math.floorMod(tailEnd - i, capacity)] != overSign[overSign.length - i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 清空已匹配的回显, 在取走回显后调用
+     */
+    public void reset() {
+        tailEnd = 0;
+        tailSize = 0;
+        blankEnd = 0;
+        blankSize = 0;
+    }
+}
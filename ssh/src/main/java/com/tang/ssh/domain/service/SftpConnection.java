@@ -4,29 +4,33 @@
 
 package com.tang.ssh.domain.service;
 
-import cn.hutool.core.io.FileUtil;
 import com.tang.base.exception.BaseErrorCode;
 import com.tang.base.exception.BaseException;
 import com.tang.base.utils.CloseUtils;
+import com.tang.ssh.domain.entity.SftpSyncOption;
+import com.tang.ssh.domain.entity.SftpSyncResult;
+import com.tang.ssh.domain.entity.SftpTransferOption;
 import com.tang.ssh.domain.exception.SshErrorCode;
 import com.tang.ssh.domain.exception.SshTangException;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.sshd.client.session.ClientSession;
 import org.apache.sshd.sftp.client.SftpClient;
 import org.apache.sshd.sftp.client.fs.SftpFileSystem;
 import org.apache.sshd.sftp.client.fs.SftpPath;
 
-import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.DecimalFormat;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * sftp连接
+ * <p>
+ * 通过{@link SshConnection#createSftpConnection()}创建的连接从子系统池中租用，关闭时归还子系统，而不是真正关闭；
+ * 分段传输与目录同步需要的其他通道同样占用子系统池的名额，通道数不超过池中的空闲名额
  *
  * @author TangAn
  * @version 0.1
@@ -34,15 +38,30 @@ import java.text.DecimalFormat;
  */
 @Slf4j
 public class SftpConnection implements Closeable {
+    /**
+     * 不指定传输参数时使用单通道传输，通道内依然是流水线读写
+     */
+    private static final SftpTransferOption SINGLE_CHANNEL = SftpTransferOption.builder().channelSize(1).build();
+
     private final SftpClient sftpClient;
 
     private final SftpFileSystem fs;
 
-    private boolean close;
+    /**
+     * 子系统所属的池, 为空表示独占子系统
+     */
+    private final SftpConnectionPool pool;
+
+    private final AtomicBoolean close = new AtomicBoolean();
 
     public SftpConnection(SftpFileSystem fs, SftpClient sftpClient) {
+        this(fs, sftpClient, null);
+    }
+
+    SftpConnection(SftpFileSystem fs, SftpClient sftpClient, SftpConnectionPool pool) {
         this.fs = fs;
         this.sftpClient = sftpClient;
+        this.pool = pool;
     }
 
     /**
@@ -61,15 +80,40 @@ public class SftpConnection implements Closeable {
         downloadBySftpClient(remotePath, localPath);
     }
 
+    /**
+     * 分段并行下载文件, 适合大文件与高延迟链路
+     *
+     * @param remotePath 远程文件的绝对路径
+     * @param localPath  下载到本地的路径
+     * @param option     传输参数
+     * @throws SshTangException 下载失败
+     */
+    public void download(String remotePath, String localPath, SftpTransferOption option) throws SshTangException {
+        checkSftp();
+        int extra = acquireExtraChannels(option.getChannelSize());
+        try {
+            new SftpTransfer(getSession(), option.toBuilder().channelSize(extra + 1).build())
+                .download(remotePath, Path.of(localPath));
+        } finally {
+            releaseExtraChannels(extra);
+        }
+    }
+
     private void downloadBySftpClient(String remotePath, String localPath) {
-        log.info("start download {} from {}", localPath, remotePath);
-        try (InputStream read = sftpClient.read(remotePath)) {
-            FileUtil.writeFromStream(read, new File(localPath));
+        log.info("start download {} from {} by sftp client", localPath, remotePath);
+        Path local = Path.of(localPath);
+        try {
+            Path parent = local.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            // 使用本连接的子系统传输, 不再另外打开子系统
+            new SftpTransfer(sftpClient.getClientSession(), SINGLE_CHANNEL).download(sftpClient, remotePath,
+                sftpClient.stat(remotePath).getSize(), local);
         } catch (IOException e) {
-            log.error("download from sftp error.", e);
+            log.error("download {} from sftp by sftp client error.", remotePath, e);
             throw new SshTangException(SshErrorCode.SFTP_DOWNLOAD_FAIL);
         }
-        log.info("finish download {} from {}", localPath, remotePath);
     }
 
     private void downloadByFileSystem(String remotePath, String localPath) {
@@ -81,7 +125,9 @@ public class SftpConnection implements Closeable {
                 log.info("{} exits, will delete", localPath);
                 Files.delete(local);
             }
+            long startTime = System.currentTimeMillis();
             Files.copy(defaultDir.resolve(remotePath), local);
+            SshMetrics.recordSftp(fs.getClientSession(), Files.size(local), System.currentTimeMillis() - startTime);
         } catch (IOException e) {
             log.error("download {} from sftp by fs error.", remotePath, e);
             throw new SshTangException(SshErrorCode.SFTP_DOWNLOAD_FAIL);
@@ -108,7 +154,30 @@ public class SftpConnection implements Closeable {
             uploadByFileSystem(localPath, remotePath);
             return;
         }
-        uploadBySftpClient(localPath, remotePath, file);
+        uploadBySftpClient(remotePath, file);
+    }
+
+    /**
+     * 分段并行上传文件, 适合大文件与高延迟链路
+     *
+     * @param localPath  本地文件路径，必须为文件
+     * @param remotePath 远程文件的全路径
+     * @param option     传输参数
+     * @throws BaseException 上传失败
+     */
+    public void upload(String localPath, String remotePath, SftpTransferOption option) throws BaseException {
+        checkSftp();
+        File file = new File(localPath);
+        if (!file.isFile()) {
+            throw new BaseException(BaseErrorCode.FILE_FORMAT_ILLEGAL);
+        }
+        int extra = acquireExtraChannels(option.getChannelSize());
+        try {
+            new SftpTransfer(getSession(), option.toBuilder().channelSize(extra + 1).build())
+                .upload(file.toPath(), remotePath);
+        } finally {
+            releaseExtraChannels(extra);
+        }
     }
 
     private void uploadByFileSystem(String localPath, String remotePath) {
@@ -117,7 +186,10 @@ public class SftpConnection implements Closeable {
             SftpPath remote = defaultDir.resolve(remotePath);
             preUpload(remotePath, remote);
             log.info("start upload {} to {} by fs", localPath, remotePath);
+            long startTime = System.currentTimeMillis();
             Files.copy(Path.of(localPath), remote);
+            SshMetrics.recordSftp(fs.getClientSession(), Files.size(Path.of(localPath)),
+                System.currentTimeMillis() - startTime);
             log.info("finish upload {} to {} by fs", localPath, remotePath);
         } catch (IOException e) {
             log.error("upload file error by fs.", e);
@@ -137,31 +209,87 @@ public class SftpConnection implements Closeable {
         }
     }
 
-    private void uploadBySftpClient(String localPath, String remotePath, File file) {
-        try (BufferedInputStream fis = new BufferedInputStream(new FileInputStream(file));
-            SftpClient.CloseableHandle handle = sftpClient.open(remotePath, SftpClient.OpenMode.Create,
-                SftpClient.OpenMode.Write)
-        ) {
-            log.info("start upload {} to {}", localPath, remotePath);
-            upload(fis, handle);
-            log.info("finish upload {} to {}", localPath, remotePath);
+    private void uploadBySftpClient(String remotePath, File file) {
+        log.info("start upload {} to {} by sftp client", file, remotePath);
+        SftpTransfer transfer = new SftpTransfer(sftpClient.getClientSession(), SINGLE_CHANNEL);
+        try {
+            // 使用本连接的子系统传输, 不再另外打开子系统
+            transfer.createParentDirs(sftpClient, remotePath);
+            transfer.upload(sftpClient, file.toPath(), remotePath);
         } catch (IOException e) {
-            log.error("upload file error.", e);
+            log.error("upload file error by sftp client.", e);
             throw new SshTangException(SshErrorCode.SFTP_UPLOAD_FAIL);
         }
     }
 
-    private void upload(BufferedInputStream fis, SftpClient.CloseableHandle handle) throws IOException {
-        int single = 1024 * 1024 * 4;
-        byte[] bytes = new byte[single];
-        int len = 0;
-        int write = 0;
-        while ((len = fis.read(bytes, 0, single)) > 0) {
-            sftpClient.write(handle, write, bytes, 0, len);
-            write += len;
+    /**
+     * 将本地目录同步到远程目录, 只传输有变化的文件
+     *
+     * @param localDir  本地目录
+     * @param remoteDir 远程目录
+     * @param option    同步参数
+     * @return 同步结果
+     * @throws BaseException 同步失败
+     */
+    public SftpSyncResult syncDirectory(String localDir, String remoteDir, SftpSyncOption option)
+        throws BaseException {
+        checkSftp();
+        Path local = Path.of(localDir);
+        if (!Files.isDirectory(local)) {
+            throw new BaseException(BaseErrorCode.FILE_FORMAT_ILLEGAL);
+        }
+        int extra = acquireExtraChannels(option.getChannelSize());
+        try {
+            return new SftpSync(getSession(), option.toBuilder().channelSize(extra + 1).build())
+                .push(local, remoteDir);
+        } finally {
+            releaseExtraChannels(extra);
         }
     }
 
+    /**
+     * 将远程目录同步到本地目录, 只传输有变化的文件
+     *
+     * @param remoteDir 远程目录
+     * @param localDir  本地目录
+     * @param option    同步参数
+     * @return 同步结果
+     * @throws SshTangException 同步失败
+     */
+    public SftpSyncResult syncDirectoryFromRemote(String remoteDir, String localDir, SftpSyncOption option)
+        throws SshTangException {
+        checkSftp();
+        int extra = acquireExtraChannels(option.getChannelSize());
+        try {
+            return new SftpSync(getSession(), option.toBuilder().channelSize(extra + 1).build())
+                .pull(remoteDir, Path.of(localDir));
+        } finally {
+            releaseExtraChannels(extra);
+        }
+    }
+
+    /**
+     * 分段传输与目录同步另外打开的通道数, 本连接租用的名额算作一个,
+     * 其余的从子系统池占用空闲名额, 池中没有空闲名额时只使用一个通道
+     *
+     * @param channelSize 需要的通道数
+     * @return 本连接之外占用的通道数
+     */
+    private int acquireExtraChannels(int channelSize) {
+        int extra = Math.max(channelSize, 1) - 1;
+        return pool == null ? extra : pool.acquireExtra(extra);
+    }
+
+    private void releaseExtraChannels(int extra) {
+        if (pool != null) {
+            pool.releaseExtra(extra);
+        }
+    }
+
+    private ClientSession getSession() {
+        return fs != null ? fs.getClientSession() : sftpClient.getClientSession();
+    }
+
     private void checkSftp() throws SshTangException {
         if (isClose()) {
             throw new SshTangException(SshErrorCode.SFTP_HAS_CLOSE);
@@ -174,7 +302,7 @@ public class SftpConnection implements Closeable {
      * @return true表示sftp已关闭
      */
     public boolean isClose() {
-        if (close) {
+        if (close.get()) {
             return true;
         }
         if (fs != null) {
@@ -185,7 +313,13 @@ public class SftpConnection implements Closeable {
 
     @Override
     public void close() throws IOException {
-        close = true;
+        if (!close.compareAndSet(false, true)) {
+            return;
+        }
+        if (pool != null) {
+            pool.release(fs, sftpClient);
+            return;
+        }
         CloseUtils.close(fs);
         CloseUtils.close(sftpClient);
     }
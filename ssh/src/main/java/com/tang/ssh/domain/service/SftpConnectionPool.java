@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.service;
+
+import com.tang.base.utils.CloseUtils;
+import com.tang.ssh.domain.entity.SshParam;
+import com.tang.ssh.domain.exception.SshErrorCode;
+import com.tang.ssh.domain.exception.SshTangException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.sftp.client.SftpClient;
+import org.apache.sshd.sftp.client.SftpClientFactory;
+import org.apache.sshd.sftp.client.fs.SftpFileSystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * sftp子系统池
+ * <p>
+ * 同一个session上复用多个sftp子系统，每次传输租用一个子系统，用完归还，
+ * 不同子系统上的传输可以并行执行，互不影响
+ * <p>
+ * 子系统按需创建，最多{@link SshParam#getSftpChannelSize()}个，
+ * 空闲超过{@link SshParam#getSftpMaxIdleSecond()}秒的子系统会被关闭
+ * <p>
+ * 优先使用nio文件系统方式，创建失败时自动切换为sftp客户端方式，之后都使用能够创建成功的方式
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/16
+ */
+@Slf4j
+public class SftpConnectionPool implements Closeable {
+    private final SshParam sshParam;
+
+    private final ClientSession session;
+
+    private final Semaphore permits;
+
+    /**
+     * 空闲的子系统, 最近归还的在队首, 空闲最久的在队尾
+     */
+    private final Deque<Subsystem> idleSubsystems = new ConcurrentLinkedDeque<>();
+
+    private final AtomicInteger leasedCount = new AtomicInteger();
+
+    /**
+     * 是否使用nio文件系统方式创建子系统
+     */
+    private volatile boolean useFileSystem = true;
+
+    private volatile boolean close = false;
+
+    public SftpConnectionPool(SshParam sshParam, ClientSession session) {
+        this.sshParam = sshParam;
+        this.session = session;
+        this.permits = new Semaphore(Math.max(sshParam.getSftpChannelSize(), 1), true);
+    }
+
+    /**
+     * 租用一个sftp子系统, 没有空闲子系统且已达上限时等待
+     *
+     * @return sftp连接, 用完调用{@link SftpConnection#close()}归还子系统
+     * @throws SshTangException 等待被中断或者创建子系统失败
+     */
+    public SftpConnection lease() throws SshTangException {
+        checkClose();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            // 等待期间所属任务被取消, 与等待回显时被中断一样报告为中断, 而不是普通的失败
+            Thread.currentThread().interrupt();
+            throw new SshTangException(SshErrorCode.COMMAND_INTERRUPTED, sshParam.getHost());
+        }
+        try {
+            Subsystem subsystem;
+            while ((subsystem = idleSubsystems.pollFirst()) != null) {
+                if (subsystem.isOpen()) {
+                    break;
+                }
+                subsystem.close();
+            }
+            if (subsystem == null) {
+                subsystem = open();
+            }
+            leasedCount.incrementAndGet();
+            return new SftpConnection(subsystem.fs, subsystem.client, this);
+        } catch (SshTangException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 分段传输与目录同步在租用的子系统之外另外打开通道, 这些通道同样占用名额, 不等待, 最多占用count个
+     * <p>
+     * 每占用一个名额关闭一个空闲子系统, 使打开的子系统总数仍受{@link SshParam#getSftpChannelSize()}限制
+     *
+     * @param count 需要的通道数
+     * @return 实际占用的名额数, 用完调用{@link SftpConnectionPool#releaseExtra(int)}归还
+     */
+    int acquireExtra(int count) {
+        int acquired = 0;
+        while (acquired < count && !close && permits.tryAcquire()) {
+            acquired++;
+            Subsystem idle = idleSubsystems.pollLast();
+            if (idle != null) {
+                idle.close();
+            }
+        }
+        return acquired;
+    }
+
+    /**
+     * 归还{@link SftpConnectionPool#acquireExtra(int)}占用的名额
+     *
+     * @param count 占用的名额数
+     */
+    void releaseExtra(int count) {
+        if (count > 0) {
+            permits.release(count);
+        }
+    }
+
+    /**
+     * 归还sftp子系统, 由{@link SftpConnection#close()}调用
+     *
+     * @param fs         nio文件系统
+     * @param sftpClient sftp客户端
+     */
+    void release(SftpFileSystem fs, SftpClient sftpClient) {
+        Subsystem subsystem = new Subsystem(fs, sftpClient, System.currentTimeMillis());
+        if (close || !subsystem.isOpen()) {
+            subsystem.close();
+        } else {
+            idleSubsystems.offerFirst(subsystem);
+        }
+        leasedCount.decrementAndGet();
+        permits.release();
+    }
+
+    /**
+     * 关闭空闲超时的子系统
+     */
+    public void evict() {
+        long maxIdleMillis = TimeUnit.SECONDS.toMillis(sshParam.getSftpMaxIdleSecond());
+        if (maxIdleMillis <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Iterator<Subsystem> iterator = idleSubsystems.descendingIterator();
+        while (iterator.hasNext()) {
+            Subsystem subsystem = iterator.next();
+            if (subsystem.isOpen() && now - subsystem.idleSince < maxIdleMillis) {
+                // 越靠近队首空闲时间越短
+                return;
+            }
+            if (idleSubsystems.removeFirstOccurrence(subsystem)) {
+                log.info("close idle sftp subsystem of {}.", sshParam.getHost());
+                subsystem.close();
+            }
+        }
+    }
+
+    /**
+     * 正在被租用的子系统数量
+     *
+     * @return 子系统数量
+     */
+    public int getLeasedCount() {
+        return leasedCount.get();
+    }
+
+    /**
+     * 空闲的子系统数量
+     *
+     * @return 子系统数量
+     */
+    public int getIdleCount() {
+        return idleSubsystems.size();
+    }
+
+    private Subsystem open() throws SshTangException {
+        boolean fileSystemFirst = useFileSystem;
+        try {
+            return open(fileSystemFirst);
+        } catch (IOException e) {
+            log.error("create sftp subsystem by {} error.", fileSystemFirst ? "fs" : "client", e);
+        }
+        try {
+            Subsystem subsystem = open(!fileSystemFirst);
+            useFileSystem = !fileSystemFirst;
+            return subsystem;
+        } catch (IOException e) {
+            log.error("create sftp subsystem by {} error.", fileSystemFirst ? "client" : "fs", e);
+            throw new SshTangException(SshErrorCode.CRETE_SFTP_FAIL);
+        }
+    }
+
+    private Subsystem open(boolean fileSystem) throws IOException {
+        Subsystem subsystem;
+        if (fileSystem) {
+            // 使用nio文件系统传输效率高的多
+            subsystem = new Subsystem(SftpClientFactory.instance().createSftpFileSystem(session), null, 0);
+        } else {
+            subsystem = new Subsystem(null, SftpClientFactory.instance().createSftpClient(session), 0);
+        }
+        log.info("create sftp subsystem to {} success by {}.", sshParam.getHost(), fileSystem ? "fs" : "client");
+        return subsystem;
+    }
+
+    private void checkClose() throws SshTangException {
+        if (close) {
+            throw new SshTangException(SshErrorCode.SSH_CONN_HAVE_CLOSE);
+        }
+    }
+
+    @Override
+    public void close() {
+        close = true;
+        Subsystem subsystem;
+        while ((subsystem = idleSubsystems.pollFirst()) != null) {
+            subsystem.close();
+        }
+    }
+
+    /**
+     * 一个sftp子系统, 文件系统与客户端只有一个不为空
+     *
+     * @param fs        nio文件系统
+     * @param client    sftp客户端
+     * @param idleSince 开始空闲的时间
+     */
+    private record Subsystem(SftpFileSystem fs, SftpClient client, long idleSince) {
+        boolean isOpen() {
+            return fs != null ? fs.isOpen() : client.isOpen();
+        }
+
+        void close() {
+            CloseUtils.close(fs);
+            CloseUtils.close(client);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.service;
+
+/**
+ * sftp传输进度回调
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/16
+ */
+@FunctionalInterface
+public interface SftpProgressListener {
+    /**
+     * 传输进度变化, 多个通道并行传输时也不会并发回调
+     *
+     * @param transferred 已传输字节数
+     * @param total       文件总字节数
+     */
+    void onProgress(long transferred, long total);
+}
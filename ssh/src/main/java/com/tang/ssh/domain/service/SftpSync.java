@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.service;
+
+import com.tang.ssh.domain.entity.SftpSyncOption;
+import com.tang.ssh.domain.entity.SftpSyncResult;
+import com.tang.ssh.domain.entity.SftpTransferOption;
+import com.tang.ssh.domain.exception.SshErrorCode;
+import com.tang.ssh.domain.exception.SshTangException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.sftp.client.SftpClient;
+import org.apache.sshd.sftp.client.SftpClientFactory;
+import org.apache.sshd.sftp.common.SftpException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sftp目录同步
+ * <p>
+ * 先遍历源目录与目标目录，按大小与修改时间(或摘要)找出变化的文件，只传输变化的文件；
+ * 多个sftp通道并行传输，每个通道依次传输多个文件，小文件不需要每个文件都打开一次通道；
+ * 传输后将目标文件的修改时间设置为源文件的修改时间，下次同步时未变化的文件直接跳过
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/16
+ */
+@Slf4j
+public class SftpSync {
+    private final ClientSession session;
+
+    private final SftpSyncOption option;
+
+    private final SftpTransfer transfer;
+
+    public SftpSync(ClientSession session, SftpSyncOption option) {
+        this.session = session;
+        this.option = option;
+        this.transfer = new SftpTransfer(session, SftpTransferOption.builder().channelSize(1).build());
+    }
+
+    /**
+     * 将本地目录同步到远程目录, 远程目录不存在时创建
+     *
+     * @param localDir  本地目录
+     * @param remoteDir 远程目录
+     * @return 同步结果
+     * @throws SshTangException 同步失败
+     */
+    public SftpSyncResult push(Path localDir, String remoteDir) throws SshTangException {
+        log.info("start sync {} to {}", localDir, remoteDir);
+        try (SftpClient sftpClient = openClient()) {
+            Map<String, FileMeta> source = listLocal(localDir);
+            createDirs(sftpClient, remoteDir);
+            Map<String, FileMeta> target = new HashMap<>();
+            listRemote(sftpClient, remoteDir, "", target);
+            for (String dir : sortedDirs(source)) {
+                if (!target.containsKey(dir)) {
+                    sftpClient.mkdir(resolve(remoteDir, dir));
+                }
+            }
+            List<String> transferred = transfer(candidates(source, target), (client, file) -> {
+                Path local = localDir.resolve(file);
+                String remote = resolve(remoteDir, file);
+                if (isSame(client, local, remote, source.get(file), target.get(file))) {
+                    return false;
+                }
+                transfer.upload(client, local, remote);
+                long mtime = source.get(file).mtime();
+                client.setStat(remote, new SftpClient.Attributes().accessTime(mtime, TimeUnit.SECONDS)
+                    .modifyTime(mtime, TimeUnit.SECONDS));
+                return true;
+            });
+            List<String> deleted = new ArrayList<>();
+            if (option.isDelete()) {
+                for (String extra : extras(source, target)) {
+                    if (target.get(extra).directory()) {
+                        sftpClient.rmdir(resolve(remoteDir, extra));
+                    } else {
+                        sftpClient.remove(resolve(remoteDir, extra));
+                    }
+                    deleted.add(extra);
+                }
+            }
+            return result(localDir, remoteDir, source, transferred, deleted);
+        } catch (IOException e) {
+            log.error("sync {} to {} error.", localDir, remoteDir, e);
+            throw new SshTangException(SshErrorCode.SFTP_UPLOAD_FAIL);
+        }
+    }
+
+    /**
+     * 将远程目录同步到本地目录, 本地目录不存在时创建
+     *
+     * @param remoteDir 远程目录
+     * @param localDir  本地目录
+     * @return 同步结果
+     * @throws SshTangException 同步失败
+     */
+    public SftpSyncResult pull(String remoteDir, Path localDir) throws SshTangException {
+        log.info("start sync {} from {}", localDir, remoteDir);
+        try (SftpClient sftpClient = openClient()) {
+            Map<String, FileMeta> source = new HashMap<>();
+            listRemote(sftpClient, remoteDir, "", source);
+            Files.createDirectories(localDir);
+            Map<String, FileMeta> target = listLocal(localDir);
+            for (String dir : sortedDirs(source)) {
+                Files.createDirectories(localDir.resolve(dir));
+            }
+            List<String> transferred = transfer(candidates(source, target), (client, file) -> {
+                Path local = localDir.resolve(file);
+                String remote = resolve(remoteDir, file);
+                FileMeta meta = source.get(file);
+                if (isSame(client, local, remote, meta, target.get(file))) {
+                    return false;
+                }
+                transfer.download(client, remote, meta.size(), local);
+                Files.setLastModifiedTime(local, FileTime.from(meta.mtime(), TimeUnit.SECONDS));
+                return true;
+            });
+            List<String> deleted = new ArrayList<>();
+            if (option.isDelete()) {
+                for (String extra : extras(source, target)) {
+                    Files.delete(localDir.resolve(extra));
+                    deleted.add(extra);
+                }
+            }
+            return result(localDir, remoteDir, source, transferred, deleted);
+        } catch (IOException e) {
+            log.error("sync {} from {} error.", localDir, remoteDir, e);
+            throw new SshTangException(SshErrorCode.SFTP_DOWNLOAD_FAIL);
+        }
+    }
+
+    /**
+     * 找出需要传输的文件, 开启摘要比较时大小相同的文件也需要在传输时计算摘要
+     */
+    private List<String> candidates(Map<String, FileMeta> source, Map<String, FileMeta> target) {
+        List<String> candidates = new ArrayList<>();
+        source.forEach((file, meta) -> {
+            FileMeta targetMeta = target.get(file);
+            if (meta.directory()) {
+                return;
+            }
+            if (targetMeta == null || targetMeta.directory() || targetMeta.size() != meta.size()
+                || option.isChecksum() || targetMeta.mtime() != meta.mtime()) {
+                candidates.add(file);
+            }
+        });
+        return candidates;
+    }
+
+    /**
+     * 大小相同的文件在开启摘要比较时比较摘要, 服务端不支持摘要时再比较修改时间
+     */
+    private boolean isSame(SftpClient sftpClient, Path local, String remote, FileMeta sourceMeta,
+        FileMeta targetMeta) throws IOException {
+        if (!option.isChecksum() || targetMeta == null || targetMeta.directory()
+            || targetMeta.size() != sourceMeta.size()) {
+            return false;
+        }
+        if (sourceMeta.size() == 0) {
+            return true;
+        }
+        Boolean same = transfer.isSameHash(sftpClient, local, remote);
+        return same == null ? targetMeta.mtime() == sourceMeta.mtime() : same;
+    }
+
+    private List<String> transfer(List<String> files, FileTask task) throws IOException {
+        Queue<String> queue = new ConcurrentLinkedQueue<>(files);
+        List<String> transferred = Collections.synchronizedList(new ArrayList<>());
+        int workers = Math.min(Math.max(option.getChannelSize(), 1), files.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(() -> {
+                    try (SftpClient sftpClient = openClient()) {
+                        String file;
+                        while ((file = queue.poll()) != null) {
+                            if (task.run(sftpClient, file)) {
+                                transferred.add(file);
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            try {
+                for (Future<Void> future : futures) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                // 一个文件失败后其他通道不再取新的文件
+                queue.clear();
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                }
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                queue.clear();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("sftp sync interrupted");
+            }
+        }
+        transferred.sort(Comparator.naturalOrder());
+        return transferred;
+    }
+
+    private SftpSyncResult result(Path localDir, String remoteDir, Map<String, FileMeta> source,
+        List<String> transferred, List<String> deleted) {
+        long files = source.values().stream().filter(meta -> !meta.directory()).count();
+        int skipped = (int) (files - transferred.size());
+        log.info("finish sync {} and {}, transferred: {}, skipped: {}, deleted: {}", localDir, remoteDir,
+            transferred.size(), skipped, deleted.size());
+        return new SftpSyncResult(transferred, deleted, skipped);
+    }
+
+    private static List<String> sortedDirs(Map<String, FileMeta> metas) {
+        return metas.entrySet().stream().filter(entry -> entry.getValue().directory()).map(Map.Entry::getKey)
+            .sorted().toList();
+    }
+
+    /**
+     * 目标中多余的文件与目录, 倒序排列保证目录中的内容先于目录本身删除
+     */
+    private static List<String> extras(Map<String, FileMeta> source, Map<String, FileMeta> target) {
+        return target.keySet().stream().filter(path -> !source.containsKey(path))
+            .sorted(Comparator.reverseOrder()).toList();
+    }
+
+    private static Map<String, FileMeta> listLocal(Path localDir) throws IOException {
+        Map<String, FileMeta> metas = new HashMap<>();
+        Files.walkFileTree(localDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(localDir)) {
+                    metas.put(relativize(localDir, dir), new FileMeta(true, 0, 0));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    metas.put(relativize(localDir, file),
+                        new FileMeta(false, attrs.size(), attrs.lastModifiedTime().to(TimeUnit.SECONDS)));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return metas;
+    }
+
+    private static String relativize(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private static void listRemote(SftpClient sftpClient, String remoteDir, String relative,
+        Map<String, FileMeta> metas) throws IOException {
+        for (SftpClient.DirEntry entry : sftpClient.readDir(resolve(remoteDir, relative))) {
+            String name = entry.getFilename();
+            if (".".equals(name) || "..".equals(name)) {
+                continue;
+            }
+            String path = relative.isEmpty() ? name : relative + "/" + name;
+            SftpClient.Attributes attributes = entry.getAttributes();
+            if (attributes.isDirectory()) {
+                metas.put(path, new FileMeta(true, 0, 0));
+                listRemote(sftpClient, remoteDir, path, metas);
+            } else if (attributes.isRegularFile()) {
+                FileTime modifyTime = attributes.getModifyTime();
+                metas.put(path, new FileMeta(false, attributes.getSize(),
+                    modifyTime == null ? 0 : modifyTime.to(TimeUnit.SECONDS)));
+            }
+        }
+    }
+
+    private static void createDirs(SftpClient sftpClient, String remoteDir) throws IOException {
+        try {
+            sftpClient.stat(remoteDir);
+        } catch (SftpException e) {
+            int index = remoteDir.lastIndexOf('/');
+            if (index > 0) {
+                createDirs(sftpClient, remoteDir.substring(0, index));
+            }
+            log.info("remote {} not exits, will create", remoteDir);
+            sftpClient.mkdir(remoteDir);
+        }
+    }
+
+    private static String resolve(String remoteDir, String relative) {
+        if (relative.isEmpty()) {
+            return remoteDir;
+        }
+        return remoteDir.endsWith("/") ? remoteDir + relative : remoteDir + "/" + relative;
+    }
+
+    private SftpClient openClient() throws IOException {
+        return SftpClientFactory.instance().createSftpClient(session);
+    }
+
+    /**
+     * 文件元数据
+     *
+     * @param directory 是否为目录
+     * @param size      文件大小
+     * @param mtime     修改时间, 单位秒
+     */
+    private record FileMeta(boolean directory, long size, long mtime) {
+    }
+
+    @FunctionalInterface
+    private interface FileTask {
+        /**
+         * 处理一个文件
+         *
+         * @param sftpClient 当前通道的sftp客户端
+         * @param file       相对路径
+         * @return 是否传输了文件
+         * @throws IOException 传输失败
+         */
+        boolean run(SftpClient sftpClient, String file) throws IOException;
+    }
+}
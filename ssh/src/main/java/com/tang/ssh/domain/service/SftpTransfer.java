@@ -0,0 +1,590 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.service;
+
+import com.tang.ssh.domain.entity.SftpTransferOption;
+import com.tang.ssh.domain.exception.SshErrorCode;
+import com.tang.ssh.domain.exception.SshTangException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.common.digest.BuiltinDigests;
+import org.apache.sshd.common.digest.Digest;
+import org.apache.sshd.sftp.client.SftpClient;
+import org.apache.sshd.sftp.client.SftpClientFactory;
+import org.apache.sshd.sftp.client.extensions.CheckFileHandleExtension;
+import org.apache.sshd.sftp.client.impl.AbstractSftpClient;
+import org.apache.sshd.sftp.client.impl.SftpInputStreamAsync;
+import org.apache.sshd.sftp.client.impl.SftpOutputStreamAsync;
+import org.apache.sshd.sftp.common.SftpConstants;
+import org.apache.sshd.sftp.common.SftpException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * sftp分段并行传输
+ * <p>
+ * 文件按{@link SftpTransferOption#getMinRangeSize()}切成至多{@link SftpTransferOption#getChannelSize()}段，
+ * 每段在同一session上单独打开一个sftp通道传输；通道内使用异步流，写请求发出后不等待响应，读请求提前预读，
+ * 同时在途的请求数由通道窗口决定，高延迟链路上的吞吐量不再受限于单个请求的往返时间
+ * <p>
+ * 偏移量均为long，支持超过2G的文件；支持断点续传与传输完成后的校验和比对，见{@link SftpTransferOption}
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/16
+ */
+@Slf4j
+public class SftpTransfer {
+    private static final int MIN_BLOCK_SIZE = 256;
+
+    /**
+     * check-file扩展按顺序选择服务端支持的第一个摘要算法
+     */
+    private static final List<String> HASH_ALGORITHMS = List.of(BuiltinDigests.Constants.SHA256,
+        BuiltinDigests.Constants.SHA1, BuiltinDigests.Constants.MD5);
+
+    private final ClientSession session;
+
+    private final SftpTransferOption option;
+
+    public SftpTransfer(ClientSession session, SftpTransferOption option) {
+        this.session = session;
+        this.option = option;
+    }
+
+    /**
+     * 上传文件, 远程文件已存在时覆盖, 远程目录不存在时创建
+     * <p>
+     * 开启断点续传时, 远程文件不大于本地文件则视为上次未传完的文件, 校验后从第一个不一致的块继续上传
+     *
+     * @param local      本地文件
+     * @param remotePath 远程文件路径
+     * @throws SshTangException 上传失败或者校验不一致
+     */
+    public void upload(Path local, String remotePath) throws SshTangException {
+        long startTime = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(local, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long offset;
+            try (SftpClient sftpClient = openClient()) {
+                createParentDirs(sftpClient, remotePath);
+                long remoteSize = option.isResume() ? remoteSize(sftpClient, remotePath) : -1;
+                offset = remoteSize > 0 && remoteSize <= size
+                    ? resumeOffset(sftpClient, channel, remotePath, remoteSize) : 0;
+                if (offset == 0) {
+                    sftpClient.open(remotePath, SftpClient.OpenMode.Create, SftpClient.OpenMode.Write,
+                        SftpClient.OpenMode.Truncate).close();
+                }
+            }
+            List<Range> ranges = split(offset, size);
+            log.info("start upload {} to {}, size: {}, offset: {}, ranges: {}", local, remotePath, size, offset,
+                ranges.size());
+            Progress progress = new Progress(offset, size, option.getProgressListener());
+            transfer(ranges, range -> {
+                try (SftpClient sftpClient = openClient()) {
+                    uploadRange(sftpClient, channel, remotePath, range, EnumSet.of(SftpClient.OpenMode.Write),
+                        progress);
+                }
+            });
+            if (option.isVerify()) {
+                verify(channel, remotePath, size);
+            }
+            log.info("finish upload {} to {}, {}", local, remotePath, speed(size - offset, startTime));
+            SshMetrics.recordSftp(session, size - offset, System.currentTimeMillis() - startTime);
+        } catch (IOException e) {
+            log.error("upload {} to {} error.", local, remotePath, e);
+            throw new SshTangException(SshErrorCode.SFTP_UPLOAD_FAIL);
+        }
+    }
+
+    /**
+     * 下载文件, 本地文件已存在时覆盖
+     * <p>
+     * 开启断点续传时, 本地文件不大于远程文件则视为上次未传完的文件, 校验后从第一个不一致的块继续下载
+     *
+     * @param remotePath 远程文件路径
+     * @param local      本地文件
+     * @throws SshTangException 下载失败或者校验不一致
+     */
+    public void download(String remotePath, Path local) throws SshTangException {
+        long startTime = System.currentTimeMillis();
+        try {
+            Path parent = local.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try (FileChannel channel = FileChannel.open(local, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+                long size;
+                long offset;
+                try (SftpClient sftpClient = openClient()) {
+                    size = sftpClient.stat(remotePath).getSize();
+                    long localSize = option.isResume() ? channel.size() : -1;
+                    offset = localSize > 0 && localSize <= size
+                        ? resumeOffset(sftpClient, channel, remotePath, localSize) : 0;
+                }
+                channel.truncate(offset);
+                List<Range> ranges = split(offset, size);
+                log.info("start download {} from {}, size: {}, offset: {}, ranges: {}", local, remotePath, size,
+                    offset, ranges.size());
+                Progress progress = new Progress(offset, size, option.getProgressListener());
+                transfer(ranges, range -> {
+                    try (SftpClient sftpClient = openClient()) {
+                        downloadRange(sftpClient, channel, remotePath, size, range, progress);
+                    }
+                });
+                if (option.isVerify()) {
+                    verify(channel, remotePath, size);
+                }
+                log.info("finish download {} from {}, {}", local, remotePath, speed(size - offset, startTime));
+                SshMetrics.recordSftp(session, size - offset, System.currentTimeMillis() - startTime);
+            }
+        } catch (IOException e) {
+            log.error("download {} from {} error.", local, remotePath, e);
+            throw new SshTangException(SshErrorCode.SFTP_DOWNLOAD_FAIL);
+        }
+    }
+
+    /**
+     * 使用已打开的sftp通道上传整个文件, 批量传输小文件时复用通道, 省去每个文件打开通道的往返
+     *
+     * @param sftpClient sftp客户端
+     * @param local      本地文件
+     * @param remotePath 远程文件路径, 所在目录必须已存在
+     * @throws IOException 上传失败
+     */
+    void upload(SftpClient sftpClient, Path local, String remotePath) throws IOException {
+        long startTime = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(local, StandardOpenOption.READ)) {
+            long size = channel.size();
+            uploadRange(sftpClient, channel, remotePath, new Range(0, size), EnumSet.of(SftpClient.OpenMode.Create,
+                SftpClient.OpenMode.Write, SftpClient.OpenMode.Truncate), new Progress(0, size, null));
+            SshMetrics.recordSftp(session, size, System.currentTimeMillis() - startTime);
+        }
+    }
+
+    /**
+     * 使用已打开的sftp通道下载整个文件
+     *
+     * @param sftpClient sftp客户端
+     * @param remotePath 远程文件路径
+     * @param size       远程文件大小
+     * @param local      本地文件, 所在目录必须已存在
+     * @throws IOException 下载失败
+     */
+    void download(SftpClient sftpClient, String remotePath, long size, Path local) throws IOException {
+        long startTime = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(local, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (size > 0) {
+                downloadRange(sftpClient, channel, remotePath, size, new Range(0, size), new Progress(0, size, null));
+            }
+            SshMetrics.recordSftp(session, size, System.currentTimeMillis() - startTime);
+        }
+    }
+
+    /**
+     * 比较本地与远程文件的摘要, 由服务端计算远程文件的摘要
+     *
+     * @param sftpClient sftp客户端
+     * @param local      本地文件
+     * @param remotePath 远程文件路径
+     * @return 摘要一致返回true, 服务端不支持check-file扩展时返回null
+     * @throws IOException 计算失败
+     */
+    Boolean isSameHash(SftpClient sftpClient, Path local, String remotePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(local, StandardOpenOption.READ)) {
+            Map.Entry<String, Collection<byte[]>> remoteHashes = remoteHash(sftpClient, remotePath, 0, 0);
+            if (remoteHashes == null) {
+                return null;
+            }
+            return Arrays.equals(remoteHashes.getValue().iterator().next(),
+                localHash(channel, remoteHashes.getKey(), 0, channel.size()));
+        }
+    }
+
+    /**
+     * 计算断点续传的位置, 本地与远程文件的前length个字节按块比较, 返回第一个不一致的块的起始位置
+     * <p>
+     * 服务端支持check-file扩展时由服务端计算每块的摘要，只传输摘要；否则回读远程文件逐块比较，
+     * 并行传输中断后文件中间可能有空洞，所以不能只比较最后一块
+     *
+     * @param sftpClient sftp客户端
+     * @param channel    本地文件
+     * @param remotePath 远程文件路径
+     * @param length     已传输的长度
+     * @return 继续传输的位置
+     * @throws IOException 读取失败
+     */
+    private long resumeOffset(SftpClient sftpClient, FileChannel channel, String remotePath, long length)
+        throws IOException {
+        int blockSize = Math.max(option.getBlockSize(), MIN_BLOCK_SIZE);
+        Map.Entry<String, Collection<byte[]>> remoteHashes = remoteHash(sftpClient, remotePath, length, blockSize);
+        if (remoteHashes != null) {
+            long offset = 0;
+            for (byte[] remoteHash : remoteHashes.getValue()) {
+                long blockLength = Math.min(blockSize, length - offset);
+                if (blockLength <= 0
+                    || !Arrays.equals(remoteHash, localHash(channel, remoteHashes.getKey(), offset, blockLength))) {
+                    break;
+                }
+                offset += blockLength;
+            }
+            log.info("resume {} from {}, verified by {} block hash", remotePath, offset, remoteHashes.getKey());
+            return offset;
+        }
+        long offset = firstMismatch(sftpClient, channel, remotePath, length, blockSize);
+        log.info("resume {} from {}, verified by reading back", remotePath, offset);
+        return offset;
+    }
+
+    private long firstMismatch(SftpClient sftpClient, FileChannel channel, String remotePath, long length,
+        int blockSize) throws IOException {
+        byte[] remoteBytes = BufferPool.lease(option.getBufferSize());
+        byte[] localBytes = BufferPool.lease(option.getBufferSize());
+        try (SftpInputStreamAsync in = new SftpInputStreamAsync((AbstractSftpClient) sftpClient,
+            option.getBufferSize(), 0, length, remotePath, sftpClient.open(remotePath, SftpClient.OpenMode.Read))) {
+            long position = 0;
+            while (position < length) {
+                int len = in.read(remoteBytes, 0, (int) Math.min(remoteBytes.length, length - position));
+                if (len < 0 || readFully(channel, localBytes, len, position) < len
+                    || !Arrays.equals(remoteBytes, 0, len, localBytes, 0, len)) {
+                    return position / blockSize * blockSize;
+                }
+                position += len;
+            }
+        } finally {
+            BufferPool.release(remoteBytes);
+            BufferPool.release(localBytes);
+        }
+        return length;
+    }
+
+    private static int readFully(FileChannel channel, byte[] bytes, int length, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+
+    private void verify(FileChannel channel, String remotePath, long size) throws IOException {
+        try (SftpClient sftpClient = openClient()) {
+            long remoteSize = sftpClient.stat(remotePath).getSize();
+            if (remoteSize != size) {
+                log.error("size of {} not match, local: {}, remote: {}", remotePath, size, remoteSize);
+                throw new SshTangException(SshErrorCode.SFTP_VERIFY_FAIL, remotePath);
+            }
+            if (size == 0) {
+                return;
+            }
+            Map.Entry<String, Collection<byte[]>> remoteHashes = remoteHash(sftpClient, remotePath, size, 0);
+            if (remoteHashes == null) {
+                log.warn("server not support check-file, only size of {} is verified.", remotePath);
+                return;
+            }
+            byte[] remoteHash = remoteHashes.getValue().iterator().next();
+            if (!Arrays.equals(remoteHash, localHash(channel, remoteHashes.getKey(), 0, size))) {
+                log.error("{} hash of {} not match.", remoteHashes.getKey(), remotePath);
+                throw new SshTangException(SshErrorCode.SFTP_VERIFY_FAIL, remotePath);
+            }
+            log.info("verify {} success by {}.", remotePath, remoteHashes.getKey());
+        }
+    }
+
+    /**
+     * 使用check-file扩展由服务端计算摘要
+     *
+     * @param sftpClient sftp客户端
+     * @param remotePath 远程文件路径
+     * @param length     计算的长度, 0表示到文件末尾
+     * @param blockSize  块大小, 0表示整段只计算一个摘要
+     * @return 摘要算法与每块的摘要, 服务端不支持时返回null
+     * @throws IOException 计算失败
+     */
+    private Map.Entry<String, Collection<byte[]>> remoteHash(SftpClient sftpClient, String remotePath, long length,
+        int blockSize) throws IOException {
+        CheckFileHandleExtension extension = sftpClient.getExtension(CheckFileHandleExtension.class);
+        if (extension == null || !extension.isSupported()) {
+            return null;
+        }
+        try (SftpClient.CloseableHandle handle = sftpClient.open(remotePath, SftpClient.OpenMode.Read)) {
+            return extension.checkFileHandle(handle, HASH_ALGORITHMS, 0, length, blockSize);
+        }
+    }
+
+    private byte[] localHash(FileChannel channel, String algorithm, long offset, long length) throws IOException {
+        BuiltinDigests digests = BuiltinDigests.fromFactoryName(algorithm);
+        if (digests == null) {
+            throw new IOException("unsupported hash algorithm: " + algorithm);
+        }
+        byte[] bytes = BufferPool.lease(option.getBufferSize());
+        try {
+            Digest digest = digests.create();
+            digest.init();
+            long end = offset + length;
+            for (long position = offset; position < end; ) {
+                int len = read(channel, bytes, position, end);
+                digest.update(bytes, 0, len);
+                position += len;
+            }
+            return digest.digest();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        } finally {
+            BufferPool.release(bytes);
+        }
+    }
+
+    private static long remoteSize(SftpClient sftpClient, String remotePath) throws IOException {
+        try {
+            return sftpClient.stat(remotePath).getSize();
+        } catch (SftpException e) {
+            if (e.getStatus() == SftpConstants.SSH_FX_NO_SUCH_FILE) {
+                return -1;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 按位置读取本地文件，多个分段可以共用同一个文件通道并行读取
+     */
+    private void uploadRange(SftpClient sftpClient, FileChannel channel, String remotePath, Range range,
+        Collection<SftpClient.OpenMode> openModes, Progress progress) throws IOException {
+        byte[] bytes = BufferPool.lease(option.getBufferSize());
+        try (SftpOutputStreamAsync out = new SftpOutputStreamAsync((AbstractSftpClient) sftpClient,
+            option.getBufferSize(), remotePath, openModes)) {
+            out.setOffset(range.start());
+            for (long position = range.start(); position < range.end(); ) {
+                int len = read(channel, bytes, position, range.end());
+                out.write(bytes, 0, len);
+                progress.add(len);
+                position += len;
+            }
+        } finally {
+            BufferPool.release(bytes);
+        }
+    }
+
+    /**
+     * 远程数据从sftp响应的缓冲区直接写入本地文件，不再经过中间的字节数组
+     */
+    private void downloadRange(SftpClient sftpClient, FileChannel channel, String remotePath, long size, Range range,
+        Progress progress) throws IOException {
+        try (SftpInputStreamAsync in = new SftpInputStreamAsync((AbstractSftpClient) sftpClient,
+            option.getBufferSize(), range.start(), size, remotePath,
+            sftpClient.open(remotePath, SftpClient.OpenMode.Read))) {
+            long length = range.end() - range.start();
+            long transferred = in.transferTo(length, new PositionalChannel(channel, range.start(), progress));
+            if (transferred < length) {
+                throw new EOFException("remote file is shorter than expected: " + (range.start() + transferred));
+            }
+        }
+    }
+
+    private void transfer(List<Range> ranges, RangeTask task) throws IOException {
+        if (ranges.isEmpty()) {
+            return;
+        }
+        if (ranges.size() == 1) {
+            task.run(ranges.get(0));
+            return;
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (Range range : ranges) {
+                futures.add(executor.submit(() -> {
+                    task.run(range);
+                    return null;
+                }));
+            }
+            try {
+                for (Future<Void> future : futures) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                // 一段失败整个文件就失败了，其他段不需要继续传输
+                futures.forEach(future -> future.cancel(true));
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                }
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                futures.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("sftp transfer interrupted");
+            }
+        }
+    }
+
+    private List<Range> split(long offset, long size) {
+        List<Range> ranges = new ArrayList<>();
+        long remaining = size - offset;
+        if (remaining <= 0) {
+            return ranges;
+        }
+        long count = Math.min(Math.max(option.getChannelSize(), 1),
+            Math.max(remaining / Math.max(option.getMinRangeSize(), 1), 1));
+        long rangeSize = (remaining + count - 1) / count;
+        for (long start = offset; start < size; start += rangeSize) {
+            ranges.add(new Range(start, Math.min(start + rangeSize, size)));
+        }
+        return ranges;
+    }
+
+    /**
+     * 远程目录不存在时逐级创建
+     *
+     * @param sftpClient sftp客户端
+     * @param remotePath 远程文件路径
+     * @throws IOException 创建失败
+     */
+    void createParentDirs(SftpClient sftpClient, String remotePath) throws IOException {
+        int index = remotePath.lastIndexOf('/');
+        if (index <= 0) {
+            return;
+        }
+        String parent = remotePath.substring(0, index);
+        try {
+            sftpClient.stat(parent);
+        } catch (SftpException e) {
+            createParentDirs(sftpClient, parent);
+            log.info("remote {} not exits, will create", parent);
+            sftpClient.mkdir(parent);
+        }
+    }
+
+    /**
+     * 从指定位置读取本地文件, 不改变文件通道的位置
+     *
+     * @param channel  本地文件通道
+     * @param bytes    读取的缓冲区
+     * @param position 开始读取的位置
+     * @param end      读取的结束位置(不包含)
+     * @return 读取的字节数, 缓冲区放得下时读到结束位置为止
+     * @throws IOException 读取失败或者文件比预期的短
+     */
+    private static int read(FileChannel channel, byte[] bytes, long position, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, (int) Math.min(bytes.length, end - position));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("local file ends before " + end);
+            }
+        }
+        return buffer.position();
+    }
+
+    private SftpClient openClient() throws IOException {
+        return SftpClientFactory.instance().createSftpClient(session);
+    }
+
+    private static String speed(long size, long startTime) {
+        long cost = Math.max(System.currentTimeMillis() - startTime, 1);
+        return "cost: %sms, speed: %.2fMB/s".formatted(cost, size * 1000.0 / cost / 1024 / 1024);
+    }
+
+    /**
+     * 文件中的一段, 左闭右开
+     *
+     * @param start 开始位置
+     * @param end   结束位置
+     */
+    private record Range(long start, long end) {
+    }
+
+    /**
+     * 从指定位置开始顺序写本地文件，多个分段共用同一个文件通道
+     */
+    private static class PositionalChannel implements WritableByteChannel {
+        private final FileChannel channel;
+
+        private final Progress progress;
+
+        private long position;
+
+        PositionalChannel(FileChannel channel, long position, Progress progress) {
+            this.channel = channel;
+            this.position = position;
+            this.progress = progress;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int len = channel.write(src, position);
+            position += len;
+            progress.add(len);
+            return len;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // 文件通道由所有分段共用，在传输结束后统一关闭
+        }
+    }
+
+    @FunctionalInterface
+    private interface RangeTask {
+        void run(Range range) throws IOException;
+    }
+
+    /**
+     * 汇总各通道的进度, 每传输约1%回调一次
+     */
+    private static class Progress {
+        private final long total;
+
+        private final SftpProgressListener listener;
+
+        private final long step;
+
+        private long transferred;
+
+        private long reported;
+
+        Progress(long transferred, long total, SftpProgressListener listener) {
+            this.transferred = transferred;
+            this.reported = transferred;
+            this.total = total;
+            this.listener = listener;
+            this.step = Math.max(total / 100, 1);
+        }
+
+        synchronized void add(long len) {
+            transferred += len;
+            if (listener != null && (transferred - reported >= step || transferred == total)) {
+                reported = transferred;
+                listener.onProgress(transferred, total);
+            }
+        }
+    }
+}
@@ -5,24 +5,35 @@
 package com.tang.ssh.domain.service;
 
 import com.tang.base.utils.CloseUtils;
+import com.tang.ssh.domain.entity.SshExecResult;
 import com.tang.ssh.domain.entity.SshOrder;
 import com.tang.ssh.domain.entity.SshParam;
 import com.tang.ssh.domain.exception.SshErrorCode;
 import com.tang.ssh.domain.exception.SshTangException;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.sshd.client.SshClient;
-import org.apache.sshd.client.channel.ChannelShell;
-import org.apache.sshd.client.channel.PtyCapableChannelSession;
+import org.apache.sshd.client.channel.ChannelExec;
+import org.apache.sshd.client.channel.ClientChannelEvent;
 import org.apache.sshd.client.session.ClientSession;
-import org.apache.sshd.common.channel.PtyChannelConfigurationHolder;
-import org.apache.sshd.sftp.client.SftpClient;
-import org.apache.sshd.sftp.client.SftpClientFactory;
-import org.apache.sshd.sftp.client.fs.SftpFileSystem;
+import org.apache.sshd.common.kex.KexProposalOption;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
  * ssh连接
@@ -31,8 +42,16 @@ import java.util.concurrent.TimeUnit;
  * 2、同步执行命令
  * 3、能够支持Ctrl+C等按键
  * 4、自动重连
+ * 5、同一个session上复用多个shell通道，并发执行命令, 通道数量见{@link SshParam#getShellChannelSize()}
+ * 6、通过exec通道执行非交互式命令，直接获取标准输出、错误输出与退出码
+ * 7、按行流式处理大量回显
+ * 8、流水线执行多条命令，一批命令只等待一次网络往返
+ * 9、同一个session上复用多个sftp子系统，并发传输文件, 子系统数量见{@link SshParam#getSftpChannelSize()}
+ * 10、空闲时可以只关闭session释放服务端资源，连接对象仍然可用，下次使用时通过{@link SessionFactory}重新建立session
  * <p>
- * todo 命令超时机制，top等命令的支持, 并发执行命令(不能同时执行两个非并发命令)
+ * 注意：不同shell通道之间不共享工作目录、环境变量等shell状态
+ * <p>
+ * todo 命令超时机制，top等命令的支持
  *
  * @author TangAn
  * @version 0.1
@@ -43,62 +62,61 @@ public class SshConnection implements Closeable {
     @Getter
     private final SshParam sshParam;
 
-    private SshClient client;
+    private final SessionFactory sessionFactory;
+
+    /**
+     * 保护session的重建与关闭, 开始使用连接时在锁内登记, 保证正在使用的session不会被关闭
+     */
+    private final Lock sessionLock = new ReentrantLock();
+
+    private volatile ClientSession session;
 
-    private ClientSession session;
+    private volatile SshShellPool shellPool;
 
-    private ChannelShell channelShell;
+    /**
+     * 正在执行异步命令的通道，最近一次的在队首，指令(比如Ctrl+C)需要发送到该通道
+     * <p>
+     * 这些通道仍处于租用状态，不在空闲通道中，结束命令后才归还
+     */
+    private final Deque<SshShell> asyncShells = new ConcurrentLinkedDeque<>();
 
-    private SshMonitor monitor;
+    private volatile SftpConnectionPool sftpPool;
 
-    private SftpConnection sftpConnection;
+    private final SshEchoLogger echoLogger;
 
     @Getter
-    private boolean close = false;
+    private volatile boolean close = false;
 
-    public SshConnection(SshParam sshParam, SshClient client, ClientSession session) throws SshTangException {
-        this.client = client;
-        this.session = session;
-        this.sshParam = sshParam;
-        this.channelShell = createShellChannel(sshParam, session);
-        this.monitor = createMonitor(sshParam);
-    }
+    private final AtomicInteger usingCount = new AtomicInteger();
 
-    private SshMonitor createMonitor(SshParam sshParam) {
-        this.monitor = new SshMonitor(sshParam, this.channelShell);
-        Thread.startVirtualThread(monitor);
-        // 将首次登录连接的命令都清掉
-        monitor.cleanLoginEcho();
-        return monitor;
-    }
+    /**
+     * 最近一次使用的时间
+     */
+    @Getter
+    private volatile long lastActiveTime = System.currentTimeMillis();
 
     /**
-     * xterm类型才能支持top命令, 不过直接发送top命令会有乱码, 最好使用top -b -n 1(b,批处理模式，n执行n次)
-     * <p>
-     * 可以参考{@link PtyCapableChannelSession#resolvePtyType(PtyChannelConfigurationHolder)}
-     * 这里设置为xterm(命令行执行echo $TERM获取终端类型)，部分命令的回显会带有乱码，需要先执行命令：bind 'set enable-bracketed-paste off'，
-     * 最好设置为bash，否则日志中可能乱码
+     * 创建连接
      *
-     * @param sshParam ssh连接参数
-     * @param session  连接session
-     * @return 创建好的通道
-     * @throws SshTangException 创建失败
-     * @see <a href="https://askubuntu.com/questions/662222/why-bracketed-paste-mode-is-enabled-sporadically-in-my-terminal-screen">Why bracketed paste mode is enabled sporadically in my terminal screen</a>
-     * @see <a href="https://stackoverflow.com/questions/42212099/how-do-i-disable-the-weird-characters-from-bracketed-paste-mode-on-the-mac-os">How do I disable the weird characters from "bracketed paste mode" on the Mac OS X default terminal</a>
+     * @param sshParam       ssh连接参数
+     * @param session        已认证的session
+     * @param sessionFactory session被关闭或者断开后, 重新建立session的方式
+     * @throws SshTangException 创建shell通道失败
      */
-    private ChannelShell createShellChannel(SshParam sshParam, ClientSession session) throws SshTangException {
-        try {
-            ChannelShell channel = session.createShellChannel();
-            channel.setPtyType("bash");
-            channel.setPtyLines(Integer.MAX_VALUE);
-            channel.setPtyColumns(Integer.MAX_VALUE);
-            channel.setUsePty(true);
-            channel.open().verify(TimeUnit.SECONDS.toMillis(sshParam.getTimeoutSecond()));
-            return channel;
-        } catch (IOException e) {
-            log.error("create shell channel error.", e);
-            throw new SshTangException(SshErrorCode.CREATE_CHANNEL_ERROR);
-        }
+    public SshConnection(SshParam sshParam, ClientSession session, SessionFactory sessionFactory)
+        throws SshTangException {
+        this.sshParam = sshParam;
+        this.sessionFactory = sessionFactory;
+        this.echoLogger = new SshEchoLogger(log, sshParam.getEchoLogPolicy());
+        attach(session);
+    }
+
+    private void attach(ClientSession newSession) throws SshTangException {
+        SshShellPool newShellPool = new SshShellPool(sshParam, newSession);
+        this.sftpPool = new SftpConnectionPool(sshParam, newSession);
+        this.shellPool = newShellPool;
+        this.session = newSession;
+        newSession.setAttribute(SshMetrics.HOST, sshParam.getHost());
     }
 
     /**
@@ -118,6 +136,9 @@ public class SshConnection implements Closeable {
      * 注意: 发送的异步命令，如果有回显，则会在下一次有效命令时返回
      * <p>
      * 比如,如果执行了ping命令，则只有发送ctrl+c才算有效命令，因为在ping过程中，其余命令不会执行
+     * <p>
+     * 异步命令执行期间独占一个shell通道，直到通过{@link SshConnection#sendCommand(SshOrder)}结束命令后才归还，
+     * 通道都被占用时，其他命令会等待
      *
      * @param command 需要发送的命令
      * @throws SshTangException 发送失败异常
@@ -147,14 +168,152 @@ public class SshConnection implements Closeable {
      * @throws SshTangException 发送失败
      */
     public String sendCommand(SshOrder order, boolean logEcho) throws SshTangException {
+        beginUse();
+        long start = System.nanoTime();
+        try {
+            return sendOrder(order, logEcho);
+        } finally {
+            endUse(start);
+        }
+    }
+
+    private String sendOrder(SshOrder order, boolean logEcho) throws SshTangException {
         log.info("start send order: {}", order);
-        String result = monitor.sendCommand(order.getCode());
-        if (logEcho) {
-            log.info("receive result: \n{}", result);
+        SshShell shell = asyncShells.poll();
+        if (shell == null) {
+            shell = shellPool.lease(order.name());
+        }
+        boolean running = false;
+        String result;
+        try {
+            result = shell.getMonitor().sendCommand(order.getCode());
+            running = shell.getMonitor().isCommandRunning();
+        } finally {
+            if (running && !shell.isClosed()) {
+                // 指令没有结束命令, 通道继续被占用
+                asyncShells.push(shell);
+            } else {
+                shellPool.release(shell);
+            }
+        }
+        if (logEcho && echoLogger.isEnabled()) {
+            log.info("receive result: \n{}", echoLogger.abbreviate(result));
         }
         return result;
     }
 
+    /**
+     * 发送命令并按行流式处理回显, 适用于输出很大或者需要边执行边处理输出的命令
+     * <p>
+     * 回显不会整体缓存在内存中，处理者处理不过来时会通过通道窗口让远端暂停发送
+     *
+     * @param command      需要发送的命令
+     * @param lineConsumer 回显的处理者，每次处理一行，不包含命令本身的回显与最后的提示符
+     * @throws SshTangException 发送失败，或者等待回显超时、通道关闭导致已处理的回显不完整
+     */
+    public void sendCommand(String command, Consumer<String> lineConsumer) throws SshTangException {
+        beginUse();
+        long start = System.nanoTime();
+        try {
+            sendStream(command, lineConsumer);
+        } finally {
+            endUse(start);
+        }
+    }
+
+    private void sendStream(String command, Consumer<String> lineConsumer) throws SshTangException {
+        log.info("start send stream command: {}", command);
+        SshShell shell = shellPool.lease(command);
+        AtomicBoolean consumed = new AtomicBoolean();
+        try {
+            try {
+                shell.getMonitor().sendCommand(command, line -> {
+                    consumed.set(true);
+                    lineConsumer.accept(line);
+                });
+            } catch (SshTangException e) {
+                log.error("send stream command error.", e);
+                if (e.getErrorCode() != SshErrorCode.CHANNEL_HAVE_CLOSED || consumed.get()) {
+                    throw e;
+                }
+                // 还没有处理任何回显，可以重试
+                shell = shellPool.reConnect(shell);
+                shell.getMonitor().sendCommand(command, lineConsumer);
+            }
+        } finally {
+            shellPool.release(shell);
+        }
+        log.info("finish send stream command: {}", command);
+    }
+
+    /**
+     * 流水线执行多条命令
+     * <p>
+     * 所有命令一次性写入同一个shell通道，按唯一标记拆分回显并获取每条命令的退出码，
+     * 不依赖结束符判断命令结束，输出以#、$等结尾的命令也不会误判，一批命令只需要等待一次网络往返
+     * <p>
+     * 命令在后台虚拟线程中执行，立即返回，每条命令结束时完成对应的future；命令按顺序在同一个shell中执行，共享工作目录等shell状态
+     *
+     * @param commands 需要执行的命令, 每条命令不能包含换行
+     * @return 每条命令的执行结果, 与命令顺序一致, 终端中的错误输出合并在标准输出中
+     * @throws SshTangException 命令包含换行或者连接已关闭
+     */
+    public List<CompletableFuture<SshExecResult>> sendPipeline(List<String> commands) throws SshTangException {
+        for (String command : commands) {
+            // 换行会把一条命令拆成多条, 标记与命令对不上
+            if (command == null || command.indexOf('\n') >= 0 || command.indexOf('\r') >= 0) {
+                log.error("pipeline command can not contain line break: {}", command);
+                throw new SshTangException(SshErrorCode.PARAM_ERROR);
+            }
+        }
+        beginUse();
+        SshShellPool pool = shellPool;
+        if (pool == null) {
+            endUse();
+            throw new SshTangException(SshErrorCode.SSH_CONN_HAVE_CLOSE);
+        }
+        SshPipeline pipeline = new SshPipeline(commands);
+        log.info("start send pipeline of {} commands.", commands.size());
+        long start = System.nanoTime();
+        pipeline.getFutures().forEach(future -> future.whenComplete(
+            (result, e) -> SshMetrics.recordCommand(sshParam.getHost(), System.nanoTime() - start)));
+        Thread.ofVirtual().name("ssh-pipeline-" + sshParam.getHost()).start(() -> {
+            try {
+                runPipeline(pool, pipeline);
+            } finally {
+                endUse();
+            }
+        });
+        return pipeline.getFutures();
+    }
+
+    private void runPipeline(SshShellPool pool, SshPipeline pipeline) {
+        SshShell shell;
+        try {
+            shell = pool.lease(String.join("; ", pipeline.getCommands()));
+        } catch (SshTangException e) {
+            pipeline.fail(e);
+            return;
+        }
+        try {
+            try {
+                shell.getMonitor().sendPipeline(pipeline);
+            } catch (SshTangException e) {
+                if (e.getErrorCode() != SshErrorCode.CHANNEL_HAVE_CLOSED) {
+                    throw e;
+                }
+                // 命令没有写入通道，可以重试
+                shell = pool.reConnect(shell);
+                shell.getMonitor().sendPipeline(pipeline);
+            }
+        } catch (SshTangException e) {
+            log.error("send pipeline error.", e);
+            pipeline.fail(e);
+        } finally {
+            pool.release(shell);
+        }
+    }
+
     /**
      * 发送命令, 不打印命令本身
      *
@@ -177,32 +336,52 @@ public class SshConnection implements Closeable {
      */
     public String sendCommand(String command, boolean logCommand, boolean logEcho, boolean async)
         throws SshTangException {
-        checkConnect();
+        beginUse();
+        long start = System.nanoTime();
+        try {
+            return sendByShell(command, logCommand, logEcho, async);
+        } finally {
+            endUse(start);
+        }
+    }
+
+    private String sendByShell(String command, boolean logCommand, boolean logEcho, boolean async)
+        throws SshTangException {
         if (logCommand) {
             log.info("start send command: {}", command);
         }
+        SshShell shell = shellPool.lease(command);
+        boolean running = false;
         try {
-            return send(command, logEcho, async);
-        } catch (SshTangException e) {
-            log.error("send command error.", e);
-            if (e.getErrorCode() == SshErrorCode.CHANNEL_HAVE_CLOSED) {
-                reConnect();
-                return send(command, logEcho, async);
+            String result;
+            try {
+                result = send(shell, command, logEcho, async);
+            } catch (SshTangException e) {
+                log.error("send command error.", e);
+                if (e.getErrorCode() != SshErrorCode.CHANNEL_HAVE_CLOSED) {
+                    throw e;
+                }
+                shell = shellPool.reConnect(shell);
+                result = send(shell, command, logEcho, async);
+            }
+            running = async;
+            return result;
+        } finally {
+            if (running) {
+                // 异步命令还在执行, 通道不能交给其他命令, 由结束命令的指令归还
+                asyncShells.push(shell);
             } else {
-                throw e;
+                shellPool.release(shell);
             }
         }
     }
 
-    private String send(String command, boolean logEcho, boolean async) throws SshTangException {
+    private String send(SshShell shell, String command, boolean logEcho, boolean async) throws SshTangException {
         String result;
         if (async) {
-            result = monitor.sendCommand(command, true);
+            result = shell.getMonitor().sendCommand(command, true);
         } else {
-            result = monitor.sendCommand(command);
-            if (logEcho) {
-                log.debug("receive result: \n{}", result);
-            }
+            result = shell.getMonitor().sendCommand(command);
         }
         return cleanEcho(command, result, logEcho);
     }
@@ -220,8 +399,8 @@ public class SshConnection implements Closeable {
                 result = "";
             }
         }
-        if (logEcho) {
-            log.info("clean result:\n{}", result);
+        if (logEcho && echoLogger.isEnabled()) {
+            log.info("clean result:\n{}", echoLogger.abbreviate(result));
         }
         return result;
     }
@@ -235,70 +414,232 @@ public class SshConnection implements Closeable {
         if (isClose()) {
             throw new SshTangException(SshErrorCode.SSH_CONN_HAVE_CLOSE);
         }
-        if (channelShell.isClosed()) {
-            log.warn("channel {}@{}:{} has closed.", sshParam.getUsername(), sshParam.getHost(), sshParam.getPort());
-            CloseUtils.close(this.monitor, this.channelShell);
-            reConnect();
+    }
+
+    private void beginUse() throws SshTangException {
+        sessionLock.lock();
+        try {
+            checkConnect();
+            if (!isAlive()) {
+                reconnect();
+            }
+            usingCount.incrementAndGet();
+        } finally {
+            sessionLock.unlock();
         }
+        lastActiveTime = System.currentTimeMillis();
     }
 
-    private synchronized void reConnect() throws SshTangException {
-        if (!this.channelShell.isClosed()) {
-            return;
+    /**
+     * session已被关闭或者已断开, 重新建立session, 旧的shell通道与sftp子系统随旧session一起关闭
+     */
+    private void reconnect() throws SshTangException {
+        log.info("ssh({}) session is not alive, reconnect.", sshParam.getHost());
+        CloseUtils.close(this.sftpPool, this.shellPool, this.session);
+        asyncShells.clear();
+        ClientSession newSession = sessionFactory.create(sshParam);
+        try {
+            attach(newSession);
+        } catch (SshTangException e) {
+            CloseUtils.close(newSession);
+            throw e;
         }
-        log.info("start reconnect {}@{}:{} channel.", sshParam.getUsername(), sshParam.getHost(), sshParam.getPort());
-        // 只创建shellChannel行不行？
-        this.channelShell = createShellChannel(sshParam, session);
-        this.monitor = createMonitor(sshParam);
-        log.info("finish reconnect {}@{}:{} channel.", sshParam.getUsername(), sshParam.getHost(), sshParam.getPort());
+        SshMetrics.recordReconnect(sshParam.getHost());
+        log.info("ssh({}) reconnect success.", sshParam.getHost());
+    }
+
+    private void endUse() {
+        lastActiveTime = System.currentTimeMillis();
+        usingCount.decrementAndGet();
+    }
+
+    private void endUse(long startNanos) {
+        SshMetrics.recordCommand(sshParam.getHost(), System.nanoTime() - startNanos);
+        endUse();
     }
 
     /**
-     * 创建sftp连接
+     * 等待租用shell通道的线程数
      *
-     * @return sftp连接
-     * @throws SshTangException 创建失败
+     * @return 线程数
      */
-    public SftpConnection createSftpConnection() throws SshTangException {
-        checkConnect();
-        if (sftpConnection != null && !sftpConnection.isClose()) {
-            return sftpConnection;
-        }
-        log.info("create sftp connection.");
+    public int getWaitingCount() {
+        SshShellPool pool = shellPool;
+        return pool == null ? 0 : pool.getWaitingCount();
+    }
+
+    /**
+     * 连接是否可用, 连接被关闭或者session已断开都表示不可用
+     *
+     * @return true表示可用
+     */
+    public boolean isAlive() {
+        ClientSession currentSession = session;
+        return !close && currentSession != null && currentSession.isOpen() && !currentSession.isClosing();
+    }
+
+    /**
+     * 连接是否已经空闲了指定时间, 有命令正在执行、异步命令还没有结束或者sftp连接被租用时不算空闲
+     *
+     * @param idleMillis 空闲毫秒数
+     * @return true表示空闲时间已超过指定时间
+     */
+    public boolean isIdle(long idleMillis) {
+        SftpConnectionPool pool = sftpPool;
+        boolean sftpUsing = pool != null && pool.getLeasedCount() > 0;
+        return usingCount.get() == 0 && !sftpUsing && asyncShells.isEmpty()
+            && System.currentTimeMillis() - lastActiveTime >= idleMillis;
+    }
+
+    /**
+     * 空闲时关闭session, 释放服务端的连接、shell通道与sftp子系统
+     * <p>
+     * 与{@link SshConnection#close()}不同, 连接对象仍然可用, 持有该连接的调用方下次使用时自动重新建立session
+     *
+     * @param idleMillis 空闲毫秒数, 空闲时间没有超过该值时不关闭
+     * @return true表示关闭了session
+     */
+    public boolean suspend(long idleMillis) {
+        sessionLock.lock();
         try {
-            // 使用nio文件系统传输效率高的多
-            return createSftpByFileSystem();
-        } catch (IOException e) {
-            log.error("create sftp by sftp file system error.", e);
+            if (close || !isIdle(idleMillis)) {
+                return false;
+            }
+            CloseUtils.close(this.sftpPool, this.shellPool, this.session);
+            return true;
+        } finally {
+            sessionLock.unlock();
         }
-        return createSftpByClient();
     }
 
-    private SftpConnection createSftpByFileSystem() throws IOException {
-        SftpFileSystem sftpFileSystem = SftpClientFactory.instance().createSftpFileSystem(session);
-        sftpConnection = new SftpConnection(sftpFileSystem, null);
-        log.info("create sftp connection success by fs.");
-        return sftpConnection;
+    /**
+     * 获取与服务端协商的算法, 可以用来确认传输配置是否生效
+     *
+     * @param option 算法类型, 比如客户端到服务端的加密算法{@link KexProposalOption#C2SENC}
+     * @return 算法名称, 连接已关闭时为空
+     */
+    public String getNegotiatedAlgorithm(KexProposalOption option) {
+        ClientSession currentSession = session;
+        return currentSession == null ? null : currentSession.getNegotiatedKexParameter(option);
+    }
+
+    /**
+     * 通过exec通道执行非交互式命令, 超时时间为{@link SshParam#getTimeoutSecond()}
+     *
+     * @param command 需要执行的命令
+     * @return 标准输出、错误输出与退出码
+     * @throws SshTangException 执行失败或超时
+     */
+    public SshExecResult sendExec(String command) throws SshTangException {
+        return sendExec(command, sshParam.getTimeoutSecond());
     }
 
-    private SftpConnection createSftpByClient() {
+    /**
+     * 通过exec通道执行非交互式命令
+     * <p>
+     * 不分配终端，不需要清理命令回显，也不需要匹配结束符，以通道关闭作为命令结束的标志，
+     * 适用于不依赖shell状态(工作目录、环境变量等)的一次性命令
+     *
+     * @param command       需要执行的命令
+     * @param timeoutSecond 命令执行超时秒数
+     * @return 标准输出、错误输出与退出码
+     * @throws SshTangException 执行失败或超时
+     */
+    public SshExecResult sendExec(String command, int timeoutSecond) throws SshTangException {
+        beginUse();
+        long start = System.nanoTime();
         try {
-            SftpClient sftpClient = SftpClientFactory.instance().createSftpClient(session);
-            sftpConnection = new SftpConnection(null, sftpClient);
-            log.info("create sftp connection success.");
-            return sftpConnection;
+            return exec(command, timeoutSecond);
+        } finally {
+            endUse(start);
+        }
+    }
+
+    private SshExecResult exec(String command, int timeoutSecond) throws SshTangException {
+        log.info("start exec command: {}", command);
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        try (ChannelExec channel = session.createExecChannel(command)) {
+            channel.setOut(stdout);
+            channel.setErr(stderr);
+            channel.open().verify(TimeUnit.SECONDS.toMillis(sshParam.getTimeoutSecond()));
+            Set<ClientChannelEvent> events =
+                channel.waitFor(EnumSet.of(ClientChannelEvent.CLOSED), Duration.ofSeconds(timeoutSecond));
+            if (events.contains(ClientChannelEvent.TIMEOUT)) {
+                log.error("exec command {} timeout.", command);
+                throw new SshTangException(SshErrorCode.COMMAND_TIMEOUT, command);
+            }
+            Integer exitStatus = channel.getExitStatus();
+            SshExecResult result = new SshExecResult(exitStatus == null ? -1 : exitStatus,
+                stdout.toString(sshParam.getCharset()).trim(), stderr.toString(sshParam.getCharset()).trim());
+            log.info("finish exec command: {}, exit code: {}", command, result.getExitCode());
+            return result;
+        } catch (InterruptedIOException e) {
+            log.warn("exec command {} interrupted, close channel.", command);
+            Thread.currentThread().interrupt();
+            throw new SshTangException(SshErrorCode.COMMAND_INTERRUPTED, sshParam.getHost());
         } catch (IOException e) {
-            log.error("create sftp error.", e);
-            throw new SshTangException(SshErrorCode.CRETE_SFTP_FAIL);
+            log.error("exec command error.", e);
+            throw new SshTangException(SshErrorCode.SEND_COMMAND_ERROR);
+        }
+    }
+
+    /**
+     * 租用sftp连接, 没有空闲的sftp子系统且已达上限时等待
+     * <p>
+     * 每个sftp连接独占一个子系统，可以在不同线程中并发传输，用完必须关闭以归还子系统
+     *
+     * @return sftp连接
+     * @throws SshTangException 创建失败
+     */
+    public SftpConnection createSftpConnection() throws SshTangException {
+        beginUse();
+        try {
+            // 租用成功后由租用计数保证session不会被关闭
+            return sftpPool.lease();
+        } finally {
+            endUse();
+        }
+    }
+
+    /**
+     * 关闭空闲超时的sftp子系统
+     */
+    public void evictIdleSftp() {
+        SftpConnectionPool pool = sftpPool;
+        if (pool != null) {
+            pool.evict();
         }
     }
 
     @Override
     public void close() throws IOException {
-        CloseUtils.close(this.sftpConnection, this.monitor, this.session, this.client);
-        this.monitor = null;
-        this.session = null;
-        this.client = null;
-        this.close = true;
+        sessionLock.lock();
+        try {
+            // 客户端由所有连接共享，这里只关闭自己的session
+            CloseUtils.close(this.sftpPool, this.shellPool, this.session);
+            this.sftpPool = null;
+            this.shellPool = null;
+            this.asyncShells.clear();
+            this.session = null;
+            this.close = true;
+        } finally {
+            sessionLock.unlock();
+        }
+    }
+
+    /**
+     * 建立已认证的session
+     */
+    @FunctionalInterface
+    public interface SessionFactory {
+        /**
+         * 建立session
+         *
+         * @param sshParam ssh连接参数
+         * @return 已认证的session
+         * @throws SshTangException 建立失败
+         */
+        ClientSession create(SshParam sshParam) throws SshTangException;
     }
 }
\ No newline at end of file
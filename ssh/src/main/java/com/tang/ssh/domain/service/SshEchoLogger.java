@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.service;
+
+import com.tang.ssh.domain.entity.SshEchoLogPolicy;
+import org.slf4j.Logger;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 按回显日志策略打印回显
+ * <p>
+ * 调用者先通过{@link SshEchoLogger#isEnabled()}判断，不打印时不会拼接或截取回显
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/17
+ */
+final class SshEchoLogger {
+    private final Logger log;
+
+    private final SshEchoLogPolicy policy;
+
+    SshEchoLogger(Logger log, SshEchoLogPolicy policy) {
+        this.log = log;
+        this.policy = policy == null ? SshEchoLogPolicy.builder().build() : policy;
+    }
+
+    /**
+     * 本次回显是否需要打印, 抽样模式下每次调用独立抽样
+     *
+     * @return true表示需要打印
+     */
+    boolean isEnabled() {
+        return switch (policy.getMode()) {
+            case OFF -> false;
+            case SAMPLE -> log.isInfoEnabled()
+                && ThreadLocalRandom.current().nextInt(Math.max(policy.getSampleRate(), 1)) == 0;
+            default -> log.isInfoEnabled();
+        };
+    }
+
+    /**
+     * 按策略截取回显
+     *
+     * @param echo 回显
+     * @return 需要打印的内容
+     */
+    String abbreviate(String echo) {
+        int headSize = Math.max(policy.getHeadSize(), 0);
+        int tailSize = Math.max(policy.getTailSize(), 0);
+        if (echo == null || policy.getMode() == SshEchoLogPolicy.Mode.FULL
+            || echo.length() <= headSize + tailSize) {
+            return echo;
+        }
+        return echo.substring(0, headSize) + "\n...(total " + echo.length() + " chars, omit "
+            + (echo.length() - headSize - tailSize) + ")...\n" + echo.substring(echo.length() - tailSize);
+    }
+}
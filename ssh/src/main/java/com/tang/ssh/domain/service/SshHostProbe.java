@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.service;
+
+import com.tang.ssh.domain.entity.BasicAuthParam;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 主机可达性探测
+ * <p>
+ * 通过与ssh端口建立tcp连接判断主机是否可达，不依赖icmp，禁ping的主机也能正确判断；
+ * 探测结果按主机端口缓存在健康表中，有效期内不再重复探测，同一主机的并发探测共享同一次探测过程
+ * <p>
+ * 每次探测使用一个虚拟线程，批量探测时同时进行的探测数不超过{@link SshHostProbe#BATCH_SIZE}
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/17
+ */
+@Slf4j
+public final class SshHostProbe {
+    /**
+     * 批量探测时同时进行的探测数
+     */
+    private static final int BATCH_SIZE = 256;
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * 主机健康表, key为host:port
+     */
+    private static final Map<String, Health> HEALTHS = new ConcurrentHashMap<>();
+
+    /**
+     * 正在进行的探测, key为host:port
+     */
+    private static final Map<String, CompletableFuture<Boolean>> PROBING = new ConcurrentHashMap<>();
+
+    private static volatile long ttlMillis = TimeUnit.SECONDS.toMillis(10);
+
+    private SshHostProbe() {
+    }
+
+    /**
+     * 设置探测结果的有效期
+     *
+     * @param ttlSecond 有效期秒数, 小于等于0表示不缓存
+     */
+    public static void setTtlSecond(int ttlSecond) {
+        ttlMillis = TimeUnit.SECONDS.toMillis(Math.max(ttlSecond, 0));
+    }
+
+    /**
+     * 判断主机是否可达, 有效期内直接返回缓存的结果
+     *
+     * @param host          主机
+     * @param port          ssh端口
+     * @param timeoutSecond 建立tcp连接的超时秒数
+     * @return true表示可达
+     */
+    public static boolean isReachable(String host, int port, int timeoutSecond) {
+        return probe(host, port, timeoutSecond).join();
+    }
+
+    /**
+     * 异步探测主机是否可达, 有效期内直接返回缓存的结果
+     *
+     * @param host          主机
+     * @param port          ssh端口
+     * @param timeoutSecond 建立tcp连接的超时秒数
+     * @return 探测结果, true表示可达
+     */
+    public static CompletableFuture<Boolean> probe(String host, int port, int timeoutSecond) {
+        String key = getKey(host, port);
+        Health health = HEALTHS.get(key);
+        if (health != null && System.currentTimeMillis() - health.checkTime < ttlMillis) {
+            return CompletableFuture.completedFuture(health.reachable);
+        }
+        CompletableFuture<Boolean> created = new CompletableFuture<>();
+        CompletableFuture<Boolean> probing = PROBING.putIfAbsent(key, created);
+        if (probing != null) {
+            return probing;
+        }
+        EXECUTOR.execute(() -> {
+            boolean reachable = false;
+            try {
+                reachable = connect(host, port, timeoutSecond);
+            } catch (Throwable e) {
+                // 比如主机为空或者端口越界, 按不可达处理, 不能让等待探测结果的调用方一直阻塞
+                log.warn("probe {}:{} error, treat as unreachable.", host, port, e);
+            } finally {
+                HEALTHS.put(key, new Health(reachable, System.currentTimeMillis()));
+                PROBING.remove(key, created);
+                created.complete(reachable);
+            }
+        });
+        return created;
+    }
+
+    /**
+     * 并行探测多台主机, 所有主机探测完成后返回
+     *
+     * @param params        主机参数
+     * @param timeoutSecond 建立tcp连接的超时秒数
+     * @return 各主机的探测结果, key为host:port, 按参数顺序排列
+     */
+    public static Map<String, Boolean> probeAll(Collection<? extends BasicAuthParam> params, int timeoutSecond) {
+        Semaphore permits = new Semaphore(BATCH_SIZE);
+        Map<String, CompletableFuture<Boolean>> futures = new LinkedHashMap<>();
+        for (BasicAuthParam param : params) {
+            String key = getKey(param.getHost(), param.getPort());
+            if (futures.containsKey(key)) {
+                continue;
+            }
+            permits.acquireUninterruptibly();
+            CompletableFuture<Boolean> future = probe(param.getHost(), param.getPort(), timeoutSecond);
+            future.whenComplete((reachable, e) -> permits.release());
+            futures.put(key, future);
+        }
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        futures.forEach((key, future) -> results.put(key, future.join()));
+        return results;
+    }
+
+    /**
+     * 清除主机的探测结果, 比如连接失败时, 下次需要重新探测
+     *
+     * @param host 主机
+     * @param port ssh端口
+     */
+    public static void invalidate(String host, int port) {
+        HEALTHS.remove(getKey(host, port));
+    }
+
+    private static boolean connect(String host, int port, int timeoutSecond) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), (int) TimeUnit.SECONDS.toMillis(timeoutSecond));
+            return true;
+        } catch (IOException e) {
+            log.warn("probe {}:{} fail, {}", host, port, e.getMessage());
+            return false;
+        }
+    }
+
+    private static String getKey(String host, int port) {
+        return host + ":" + port;
+    }
+
+    /**
+     * 主机健康状态
+     *
+     * @param reachable 是否可达
+     * @param checkTime 探测时间
+     */
+    private record Health(boolean reachable, long checkTime) {
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.service;
+
+import com.tang.ssh.domain.entity.SshHostMetrics;
+import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.common.AttributeRepository;
+import org.apache.sshd.common.util.net.SshdSocketAddress;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ssh指标
+ * <p>
+ * 按主机统计命令耗时分布、等待通道与锁的时间、结束符等待超时次数、收发字节数、重连次数与sftp吞吐量，
+ * 用来区分慢是因为网络、结束符匹配还是锁竞争
+ * <p>
+ * 计数基于{@link LongAdder}，记录时没有锁，通过{@link SshMetrics#snapshot()}获取快照后对接监控系统
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/17
+ */
+public final class SshMetrics {
+    /**
+     * session上保存的主机名, 通过跳板机连接时session的连接地址是本地转发端口, 不能用来区分主机
+     */
+    static final AttributeRepository.AttributeKey<String> HOST = new AttributeRepository.AttributeKey<>();
+
+    /**
+     * 命令耗时分布的上限毫秒数
+     */
+    private static final long[] LATENCY_BOUNDS_MILLIS = {10, 50, 100, 500, 1000, 5000, 10000, Long.MAX_VALUE};
+
+    private static final Map<String, Recorder> RECORDERS = new ConcurrentHashMap<>();
+
+    private SshMetrics() {
+    }
+
+    /**
+     * 记录一条命令的耗时
+     *
+     * @param host      主机
+     * @param costNanos 耗时纳秒数
+     */
+    public static void recordCommand(String host, long costNanos) {
+        Recorder recorder = recorder(host);
+        long costMillis = TimeUnit.NANOSECONDS.toMillis(costNanos);
+        recorder.commandCount.increment();
+        recorder.commandTotalMillis.add(costMillis);
+        recorder.commandMaxMillis.accumulate(costMillis);
+        for (int i = 0; i < LATENCY_BOUNDS_MILLIS.length; i++) {
+            if (costMillis <= LATENCY_BOUNDS_MILLIS[i]) {
+                recorder.latencyBuckets.incrementAndGet(i);
+                break;
+            }
+        }
+    }
+
+    /**
+     * 记录等待shell通道或者通道锁的时间
+     *
+     * @param host      主机
+     * @param waitNanos 等待纳秒数
+     */
+    public static void recordWait(String host, long waitNanos) {
+        recorder(host).waitTotalMillis.add(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+    }
+
+    /**
+     * 记录一次等待结束符超时
+     *
+     * @param host 主机
+     */
+    public static void recordOverSignTimeout(String host) {
+        recorder(host).overSignTimeoutCount.increment();
+    }
+
+    /**
+     * 记录收到的字节数
+     *
+     * @param host  主机
+     * @param bytes 字节数
+     */
+    public static void recordBytesIn(String host, long bytes) {
+        recorder(host).bytesIn.add(bytes);
+    }
+
+    /**
+     * 记录发送的字节数
+     *
+     * @param host  主机
+     * @param bytes 字节数
+     */
+    public static void recordBytesOut(String host, long bytes) {
+        recorder(host).bytesOut.add(bytes);
+    }
+
+    /**
+     * 记录一次重连
+     *
+     * @param host 主机
+     */
+    public static void recordReconnect(String host) {
+        recorder(host).reconnectCount.increment();
+    }
+
+    /**
+     * 记录一次sftp传输
+     *
+     * @param session   传输使用的session
+     * @param bytes      传输的字节数
+     * @param costMillis 耗时毫秒数
+     */
+    public static void recordSftp(ClientSession session, long bytes, long costMillis) {
+        Recorder recorder = recorder(getHost(session));
+        recorder.sftpBytes.add(bytes);
+        recorder.sftpTotalMillis.add(costMillis);
+    }
+
+    /**
+     * 获取所有主机的指标快照
+     *
+     * @return key为主机
+     */
+    public static Map<String, SshHostMetrics> snapshot() {
+        Map<String, SshHostMetrics> snapshot = new TreeMap<>();
+        RECORDERS.forEach((host, recorder) -> snapshot.put(host, recorder.snapshot(host)));
+        return snapshot;
+    }
+
+    /**
+     * 获取单台主机的指标快照
+     *
+     * @param host 主机
+     * @return 没有记录过的主机返回全0的指标
+     */
+    public static SshHostMetrics snapshot(String host) {
+        Recorder recorder = RECORDERS.get(host);
+        return (recorder == null ? new Recorder() : recorder).snapshot(host);
+    }
+
+    /**
+     * 清空所有指标
+     */
+    public static void reset() {
+        RECORDERS.clear();
+    }
+
+    private static Recorder recorder(String host) {
+        return RECORDERS.computeIfAbsent(host, key -> new Recorder());
+    }
+
+    private static String getHost(ClientSession session) {
+        String host = session.getAttribute(HOST);
+        if (host != null) {
+            return host;
+        }
+        SshdSocketAddress address = SshdSocketAddress.toSshdSocketAddress(session.getConnectAddress());
+        return address == null ? "unknown" : address.getHostName();
+    }
+
+    /**
+     * 单台主机的计数器
+     */
+    private static class Recorder {
+        private final LongAdder commandCount = new LongAdder();
+
+        private final LongAdder commandTotalMillis = new LongAdder();
+
+        private final LongAccumulator commandMaxMillis = new LongAccumulator(Math::max, 0);
+
+        private final AtomicLongArray latencyBuckets = new AtomicLongArray(LATENCY_BOUNDS_MILLIS.length);
+
+        private final LongAdder waitTotalMillis = new LongAdder();
+
+        private final LongAdder overSignTimeoutCount = new LongAdder();
+
+        private final LongAdder bytesIn = new LongAdder();
+
+        private final LongAdder bytesOut = new LongAdder();
+
+        private final LongAdder reconnectCount = new LongAdder();
+
+        private final LongAdder sftpBytes = new LongAdder();
+
+        private final LongAdder sftpTotalMillis = new LongAdder();
+
+        SshHostMetrics snapshot(String host) {
+            Map<Long, Long> histogram = new LinkedHashMap<>();
+            long cumulative = 0;
+            for (int i = 0; i < LATENCY_BOUNDS_MILLIS.length; i++) {
+                cumulative += latencyBuckets.get(i);
+                histogram.put(LATENCY_BOUNDS_MILLIS[i], cumulative);
+            }
+            return new SshHostMetrics(host, commandCount.sum(), commandTotalMillis.sum(), commandMaxMillis.get(),
+                Collections.unmodifiableMap(histogram), waitTotalMillis.sum(), overSignTimeoutCount.sum(),
+                bytesIn.sum(), bytesOut.sum(), reconnectCount.sum(), sftpBytes.sum(), sftpTotalMillis.sum());
+        }
+    }
+}
@@ -4,92 +4,213 @@
 
 package com.tang.ssh.domain.service;
 
+import cn.hutool.core.util.StrUtil;
 import com.tang.base.utils.CloseUtils;
-import com.tang.base.utils.ThreadUtils;
+import com.tang.ssh.domain.entity.SshOrder;
 import com.tang.ssh.domain.entity.SshParam;
 import com.tang.ssh.domain.exception.SshErrorCode;
 import com.tang.ssh.domain.exception.SshTangException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.sshd.client.channel.ClientChannel;
-import org.apache.sshd.client.channel.ClientChannelEvent;
+import org.apache.sshd.common.io.IoInputStream;
+import org.apache.sshd.common.io.IoOutputStream;
+import org.apache.sshd.common.io.IoReadFuture;
+import org.apache.sshd.common.util.buffer.Buffer;
+import org.apache.sshd.common.util.buffer.ByteArrayBuffer;
 
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.time.Duration;
-import java.util.EnumSet;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
  * ssh监视器
  * <p>
- * ssh通道，需要单独的线程去读取输出流
+ * 基于通道的异步流读取输出，数据到达时由ssh的io线程回调，不再单独起线程轮询
  * <p>
+ * 一旦回显以结束符结尾，立即唤醒等待回显的发送线程
+ * <p>
+ * 也支持流式处理回显，见{@link SshMonitor#sendCommand(String, Consumer)}
+ * <p>
+ * 以及按标记拆分回显的流水线命令，见{@link SshMonitor#sendPipeline(SshPipeline)}
  *
  * @author TangAn
  * @version 0.1
  * @since 2023/12/2
  */
 @Slf4j
-public class SshMonitor implements Closeable, Runnable {
+public class SshMonitor implements Closeable {
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    /**
+     * 流式读取时最多缓存的字符数
+     */
+    private static final int STREAM_BUFFER_SIZE = 256 * 1024;
+
     private final SshParam sshParam;
 
-    private boolean isOpen = true;
+    private volatile boolean isOpen = true;
 
     private boolean hasCleanLoginEcho = false;
 
     private final ClientChannel channel;
 
-    private final OutputStream out;
+    private final IoOutputStream out;
 
-    private final InputStream stand;
+    private final IoInputStream stand;
 
-    private final InputStream error;
+    private final IoInputStream error;
 
     private final StringBuilder cache = new StringBuilder();
 
+    private final OverSignMatcher overSignMatcher;
+
+    private final SshEchoLogger echoLogger;
+
     private final Lock lock = new ReentrantLock();
 
+    private final Lock cacheLock = new ReentrantLock();
+
+    private final Condition commandOver = cacheLock.newCondition();
+
+    private boolean streaming = false;
+
+    /**
+     * 最近一次发送的命令还没有以结束符结束, 比如异步命令或者等待结束符超时的命令
+     */
+    private volatile boolean commandRunning = false;
+
+    private Runnable pausedRead;
+
+    /**
+     * 正在执行的流水线命令, 不为空时回显交给流水线拆分
+     */
+    private SshPipeline pipeline;
+
+    /**
+     * 创建监视器, 通道必须以{@link ClientChannel.Streaming#Async}方式打开
+     *
+     * @param sshParam ssh连接参数
+     * @param channel  已打开的异步通道
+     */
     public SshMonitor(SshParam sshParam, ClientChannel channel) {
         this.sshParam = sshParam;
         this.channel = channel;
-        out = channel.getInvertedIn();
-        stand = channel.getInvertedOut();
-        error = channel.getInvertedErr();
+        out = channel.getAsyncIn();
+        stand = channel.getAsyncOut();
+        error = channel.getAsyncErr();
+        overSignMatcher = new OverSignMatcher(sshParam.getOverSign());
+        echoLogger = new SshEchoLogger(log, sshParam.getEchoLogPolicy());
     }
 
-    @Override
-    public void run() {
-        String threadName = String.format("shell-monitor-%s-%s", this.sshParam.getHost(), System.currentTimeMillis());
-        Thread.currentThread().setName(threadName);
+    /**
+     * 开始异步读取通道的标准输出与错误输出
+     */
+    public void start() {
         log.info("start monitor {} ssh.", sshParam.getHost());
-        while (isOpen) {
-            if (channel.isEofSignalled() || channel.isClosed()) {
+        read(stand, new ByteArrayBuffer(READ_BUFFER_SIZE), false);
+        read(error, new ByteArrayBuffer(READ_BUFFER_SIZE), true);
+    }
+
+    private void read(IoInputStream in, Buffer buffer, boolean isError) {
+        in.read(buffer).addListener(future -> onRead(in, future, isError));
+    }
+
+    private void onRead(IoInputStream in, IoReadFuture future, boolean isError) {
+        Throwable exception = future.getException();
+        if (exception != null) {
+            if (isOpen && !(exception instanceof EOFException)) {
+                log.error("read {} input stream error.", sshParam.getHost(), exception);
+            }
+            if (stop()) {
                 log.error("{} shell channel close.", sshParam.getHost());
-                isOpen = false;
-                break;
             }
-            readFromChannelInput(stand, "stand");
-            readFromChannelInput(error, "err");
-            ThreadUtils.sleep(1, TimeUnit.SECONDS);
+            return;
+        }
+        Buffer buffer = future.getBuffer();
+        SshMetrics.recordBytesIn(sshParam.getHost(), buffer.available());
+        String echo = new String(buffer.array(), buffer.rpos(), buffer.available(), sshParam.getCharset());
+        buffer.rpos(buffer.wpos());
+        buffer.compact();
+        if (isError) {
+            if (echoLogger.isEnabled()) {
+                log.warn("receive error:\n{}", echoLogger.abbreviate(echo));
+            }
+        } else if (!append(echo, () -> read(in, buffer, false))) {
+            // 流式读取时缓存已满，暂停读取，远端会因为窗口耗尽而停止发送
+            return;
+        }
+        if (isOpen) {
+            read(in, buffer, isError);
         }
-        log.info("end monitor {} ssh. remain result:\n{}", sshParam.getHost(), getResult());
     }
 
-    public void cleanLoginEcho() {
-        long startTime = System.currentTimeMillis();
-        while (!hasCleanLoginEcho && isCommandNotOver() && isNotTimeout(startTime)) {
-            ThreadUtils.sleep(1, TimeUnit.SECONDS);
+    /**
+     * 追加回显
+     *
+     * @param echo     回显
+     * @param nextRead 继续读取的操作
+     * @return false表示缓存已满需要暂停读取, 由取走回显的线程执行nextRead恢复读取
+     */
+    private boolean append(String echo, Runnable nextRead) {
+        SshPipeline current = null;
+        cacheLock.lock();
+        try {
+            current = pipeline;
+            if (current != null) {
+                if (current.append(echo)) {
+                    commandOver.signalAll();
+                }
+                return true;
+            }
+            cache.append(echo);
+            overSignMatcher.append(echo);
+            if (streaming) {
+                commandOver.signalAll();
+                if (cache.length() >= STREAM_BUFFER_SIZE) {
+                    pausedRead = nextRead;
+                    return false;
+                }
+            } else if (!isCommandNotOver()) {
+                commandOver.signalAll();
+            }
+            return true;
+        } finally {
+            cacheLock.unlock();
+            if (current != null) {
+                current.publish();
+            }
+        }
+    }
+
+    /**
+     * 停止监视并唤醒所有等待回显的线程
+     *
+     * @return true表示本次调用停止了监视器
+     */
+    private boolean stop() {
+        cacheLock.lock();
+        try {
+            boolean wasOpen = isOpen;
+            isOpen = false;
+            commandOver.signalAll();
+            return wasOpen;
+        } finally {
+            cacheLock.unlock();
         }
-        log.info("login info:\n{}\n", getResult());
-        hasCleanLoginEcho = true;
     }
 
-    private boolean isNotTimeout(long startTime) {
-        return System.currentTimeMillis() - startTime < TimeUnit.SECONDS.toMillis(sshParam.getTimeoutSecond());
+    public void cleanLoginEcho() {
+        String loginEcho = hasCleanLoginEcho ? getResult() : waitEcho();
+        if (echoLogger.isEnabled()) {
+            log.info("login info:\n{}\n", echoLogger.abbreviate(loginEcho));
+        }
+        hasCleanLoginEcho = true;
     }
 
     public String sendCommand(String command) throws SshTangException {
@@ -98,46 +219,315 @@ public class SshMonitor implements Closeable, Runnable {
 
     public String sendCommand(String command, boolean async) throws SshTangException {
         check();
-        lock.lock();
+        lockChannel();
         try {
-            send(command);
+            send((command + "\n").getBytes(sshParam.getCharset()));
             if (async) {
+                commandRunning = true;
                 return "";
             }
-            return getEcho();
+            return waitEcho();
         } finally {
             lock.unlock();
         }
     }
 
-    private String getEcho() {
-        long startTime = System.currentTimeMillis();
-        while (isOpen && isCommandNotOver() && isNotTimeout(startTime)) {
-            ThreadUtils.sleep(1, TimeUnit.SECONDS);
+    public String sendCommand(int code) throws SshTangException {
+        check();
+        lockChannel();
+        try {
+            send(new byte[]{(byte) code});
+            return waitEcho();
+        } finally {
+            lock.unlock();
         }
-        return getResult();
     }
 
-    public String sendCommand(int code) throws SshTangException {
+    /**
+     * 发送命令并按行流式处理回显
+     * <p>
+     * 命令本身的回显与最后的提示符不会交给处理者，缓存的回显超过{@link SshMonitor#STREAM_BUFFER_SIZE}时暂停读取通道，
+     * 处理者跟不上输出速度时，远端会因为通道窗口耗尽而停止发送，因此内存占用与输出总量无关
+     * <p>
+     * 超时时间为两次收到回显之间的最大间隔，而不是命令的总执行时间，
+     * 超时或者通道关闭时命令没有正常结束，已处理的回显不完整，此时终止远端命令并关闭通道后抛出异常
+     *
+     * @param command      需要发送的命令
+     * @param lineConsumer 回显的处理者，每次处理一行，不包含换行符
+     * @throws SshTangException 发送失败、等待回显超时或者通道关闭
+     */
+    public void sendCommand(String command, Consumer<String> lineConsumer) throws SshTangException {
         check();
-        lock.lock();
+        lockChannel();
         try {
-            send(code);
-            return getEcho();
+            startStream();
+            send((command + "\n").getBytes(sshParam.getCharset()));
+            EchoLines echoLines = new EchoLines(command, lineConsumer);
+            boolean over = false;
+            while (!over) {
+                over = takeStreamEcho(command, echoLines);
+            }
         } finally {
+            endStream();
             lock.unlock();
         }
     }
 
-    private void send(int command) throws SshTangException {
+    /**
+     * 一次性写入流水线中的所有命令, 每条命令结束时立即完成对应的future, 所有命令结束后返回
+     * <p>
+     * 超时时间为两条命令结束之间的最大间隔, 超时或者通道关闭时, 还没有结束的命令以异常结束；
+     * 失败时剩余的命令仍在远端shell的输入中排队执行, 因此终止远端命令并关闭通道
+     *
+     * @param commands 流水线命令
+     * @throws SshTangException 发送失败
+     */
+    public void sendPipeline(SshPipeline commands) throws SshTangException {
+        check();
+        lockChannel();
         try {
-            out.write(command);
-            out.flush();
-            channel.waitFor(EnumSet.of(ClientChannelEvent.OPENED), Duration.ofSeconds(sshParam.getTimeoutSecond()));
-        } catch (IOException e) {
-            log.error("send {} command error.", sshParam.getHost(), e);
-            throw new SshTangException(SshErrorCode.SEND_COMMAND_ERROR);
+            startPipeline(commands);
+            try {
+                try {
+                    send(commands.getScript().getBytes(sshParam.getCharset()));
+                } catch (SshTangException e) {
+                    // 脚本可能已经写入了一部分
+                    terminate();
+                    throw e;
+                }
+                waitPipeline(commands);
+            } finally {
+                endPipeline();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void startPipeline(SshPipeline commands) {
+        String remain = getResult();
+        if (!remain.isEmpty() && echoLogger.isEnabled()) {
+            log.info("drop {} remain echo before pipeline:\n{}", sshParam.getHost(), echoLogger.abbreviate(remain));
+        }
+        cacheLock.lock();
+        try {
+            pipeline = commands;
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    private void waitPipeline(SshPipeline commands) {
+        long timeoutNanos = TimeUnit.SECONDS.toNanos(sshParam.getTimeoutSecond());
+        long remainNanos = timeoutNanos;
+        boolean done = false;
+        boolean interrupted = false;
+        cacheLock.lock();
+        try {
+            while (isOpen && !commands.isDone() && remainNanos > 0) {
+                int before = commands.getSplitCount();
+                remainNanos = commandOver.awaitNanos(remainNanos);
+                if (commands.getSplitCount() > before) {
+                    remainNanos = timeoutNanos;
+                }
+            }
+            done = commands.isDone();
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            cacheLock.unlock();
+        }
+        if (interrupted) {
+            commands.fail(interrupt());
+            return;
+        }
+        if (done) {
+            commands.publish();
+            return;
+        }
+        log.error("wait {} pipeline echo timeout or channel closed.", sshParam.getHost());
+        SshErrorCode errorCode = isOpen ? SshErrorCode.COMMAND_TIMEOUT : SshErrorCode.CHANNEL_HAVE_CLOSED;
+        terminate();
+        commands.fail(errorCode);
+    }
+
+    private void endPipeline() {
+        cacheLock.lock();
+        try {
+            pipeline = null;
+        } finally {
+            cacheLock.unlock();
+        }
+        // 最后的提示符等剩余回显不属于任何命令
+        getResult();
+    }
+
+    private void startStream() {
+        String remain = getResult();
+        if (!remain.isEmpty() && echoLogger.isEnabled()) {
+            log.info("drop {} remain echo before stream command:\n{}", sshParam.getHost(),
+                echoLogger.abbreviate(remain));
+        }
+        cacheLock.lock();
+        try {
+            streaming = true;
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    /**
+     * 取走当前缓存的回显并交给处理者
+     *
+     * @param command   正在执行的命令
+     * @param echoLines 回显的处理者
+     * @return true表示命令已结束
+     * @throws SshTangException 等待回显超时、通道关闭或者线程被中断
+     */
+    private boolean takeStreamEcho(String command, EchoLines echoLines) throws SshTangException {
+        long remainNanos = TimeUnit.SECONDS.toNanos(sshParam.getTimeoutSecond());
+        String echo = "";
+        boolean isOverSign = false;
+        Runnable nextRead = null;
+        boolean interrupted = false;
+        cacheLock.lock();
+        try {
+            while (isOpen && cache.isEmpty() && isCommandNotOver() && remainNanos > 0) {
+                remainNanos = commandOver.awaitNanos(remainNanos);
+            }
+            echo = cache.toString();
+            cache.setLength(0);
+            isOverSign = !isCommandNotOver();
+            nextRead = pausedRead;
+            pausedRead = null;
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            cacheLock.unlock();
+        }
+        if (interrupted) {
+            throw interrupt();
+        }
+        if (nextRead != null) {
+            nextRead.run();
+        }
+        echoLines.append(echo);
+        if (isOverSign) {
+            // 剩余不完整的一行是提示符, 不交给处理者
+            return true;
+        }
+        if (!isOpen) {
+            log.error("{} channel closed before stream command over.", sshParam.getHost());
+            throw abort(SshErrorCode.CHANNEL_HAVE_CLOSED);
+        }
+        if (echo.isEmpty() && remainNanos <= 0) {
+            log.error("wait {} stream echo timeout.", sshParam.getHost());
+            SshMetrics.recordOverSignTimeout(sshParam.getHost());
+            throw abort(SshErrorCode.COMMAND_TIMEOUT, command);
+        }
+        return false;
+    }
+
+    private void endStream() {
+        Runnable nextRead;
+        cacheLock.lock();
+        try {
+            streaming = false;
+            nextRead = pausedRead;
+            pausedRead = null;
+        } finally {
+            cacheLock.unlock();
+        }
+        getResult();
+        if (nextRead != null) {
+            nextRead.run();
+        }
+    }
+
+    /**
+     * 等待回显以结束符结尾，通道关闭或超时也会返回
+     *
+     * @return 当前已收到的回显
+     */
+    private String waitEcho() throws SshTangException {
+        long remainNanos = TimeUnit.SECONDS.toNanos(sshParam.getTimeoutSecond());
+        boolean interrupted = false;
+        cacheLock.lock();
+        try {
+            while (isOpen && isCommandNotOver() && remainNanos > 0) {
+                remainNanos = commandOver.awaitNanos(remainNanos);
+            }
+            commandRunning = isOpen && isCommandNotOver();
+            if (commandRunning) {
+                log.warn("wait {} over sign timeout.", sshParam.getHost());
+                SshMetrics.recordOverSignTimeout(sshParam.getHost());
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            cacheLock.unlock();
+        }
+        if (interrupted) {
+            throw interrupt();
         }
+        return getResult();
+    }
+
+    /**
+     * 等待回显时线程被中断, 比如所属任务被取消, 终止远端命令并关闭通道
+     *
+     * @return 需要抛出的异常, 线程的中断状态保持不变
+     */
+    private SshTangException interrupt() {
+        log.warn("wait {} echo interrupted.", sshParam.getHost());
+        SshTangException exception = abort(SshErrorCode.COMMAND_INTERRUPTED, sshParam.getHost());
+        Thread.currentThread().interrupt();
+        return exception;
+    }
+
+    /**
+     * 命令没有正常结束, 发送Ctrl+C终止远端命令并关闭通道
+     * <p>
+     * 没有结束的命令的剩余回显无法与后续命令的回显区分, 因此通道不再复用, 归还时会被丢弃
+     *
+     * @param errorCode  错误码
+     * @param descParams 错误描述的参数
+     * @return 需要抛出的异常
+     */
+    private SshTangException abort(SshErrorCode errorCode, String... descParams) {
+        terminate();
+        return new SshTangException(errorCode, descParams);
+    }
+
+    private void terminate() {
+        log.warn("abort {} command, send ctrl+c and close channel.", sshParam.getHost());
+        if (isOpen) {
+            try {
+                send(new byte[]{(byte) SshOrder.CTRL_C.getCode()});
+            } catch (SshTangException e) {
+                log.warn("send ctrl+c to {} fail.", sshParam.getHost());
+            }
+        }
+        stop();
+        channel.close(false);
+    }
+
+    /**
+     * 最近一次发送的命令是否还在执行
+     *
+     * @return true表示命令还没有以结束符结束
+     */
+    public boolean isCommandRunning() {
+        return commandRunning;
+    }
+
+    /**
+     * 获取通道锁, 等待时间计入指标
+     */
+    private void lockChannel() {
+        long start = System.nanoTime();
+        lock.lock();
+        SshMetrics.recordWait(sshParam.getHost(), System.nanoTime() - start);
     }
 
     private void check() throws SshTangException {
@@ -147,15 +537,13 @@ public class SshMonitor implements Closeable, Runnable {
         }
     }
 
-    private void send(String command) throws SshTangException {
+    private void send(byte[] bytes) throws SshTangException {
         try {
-            out.write(command.getBytes());
-            out.write("\n".getBytes());
-            out.flush();
-            channel.waitFor(EnumSet.of(ClientChannelEvent.OPENED), Duration.ofSeconds(sshParam.getTimeoutSecond()));
+            out.writeBuffer(new ByteArrayBuffer(bytes)).verify(Duration.ofSeconds(sshParam.getTimeoutSecond()));
+            SshMetrics.recordBytesOut(sshParam.getHost(), bytes.length);
         } catch (IOException e) {
             log.error("send {} command error.", sshParam.getHost(), e);
-            if (e.getMessage().contains("closed")) {
+            if (channel.isClosing() || StrUtil.containsIgnoreCase(e.getMessage(), "closed")) {
                 throw new SshTangException(SshErrorCode.CHANNEL_HAVE_CLOSED);
             }
             throw new SshTangException(SshErrorCode.SEND_COMMAND_ERROR);
@@ -163,44 +551,72 @@ public class SshMonitor implements Closeable, Runnable {
     }
 
     private String getResult() {
-        String result = cache.toString();
-        cache.setLength(0);
-        cache.trimToSize();
-        return result;
+        cacheLock.lock();
+        try {
+            String result = cache.toString();
+            cache.setLength(0);
+            cache.trimToSize();
+            overSignMatcher.reset();
+            return result;
+        } finally {
+            cacheLock.unlock();
+        }
     }
 
     private boolean isCommandNotOver() {
         // 有任意一个结束符匹配到，就算结束
-        return sshParam.getOverSign().stream().noneMatch(overSign -> cache.toString().trim().endsWith(overSign));
+        return !overSignMatcher.isOver();
     }
 
-    private void readFromChannelInput(InputStream in, String type) {
-        try {
-            int len;
-            byte[] bytes = new byte[2048];
-            while ((len = in.available()) > 0) {
-                if (len > 2048) {
-                    len = 2048;
+    /**
+     * 把流式回显拆分成行
+     */
+    private static class EchoLines {
+        private final String command;
+
+        private final Consumer<String> lineConsumer;
+
+        private final StringBuilder line = new StringBuilder();
+
+        private boolean isFirstLine = true;
+
+        EchoLines(String command, Consumer<String> lineConsumer) {
+            this.command = command;
+            this.lineConsumer = lineConsumer;
+        }
+
+        void append(String echo) {
+            for (int i = 0; i < echo.length(); i++) {
+                char c = echo.charAt(i);
+                if (c == '\n') {
+                    accept(line.toString());
+                    line.setLength(0);
+                } else if (c != '\r') {
+                    line.append(c);
                 }
-                len = in.read(bytes, 0, len);
-                if (len > 0) {
-                    String echo = new String(bytes, 0, len, sshParam.getEncoding());
-                    if ("err".equals(type)) {
-                        log.warn("receive error:\n{}", echo);
-                    } else {
-                        cache.append(echo);
-                    }
+            }
+        }
+
+        private void accept(String echoLine) {
+            if (isFirstLine) {
+                isFirstLine = false;
+                // 第一行是命令本身的回显
+                if (echoLine.endsWith(command)) {
+                    return;
                 }
             }
-        } catch (IOException e) {
-            log.error("read {} input stream error.", sshParam.getHost(), e);
+            lineConsumer.accept(echoLine);
         }
     }
 
     @Override
     public void close() throws IOException {
         log.info("close {} ssh monitor.", sshParam.getHost());
-        isOpen = false;
+        stop();
         CloseUtils.close(out, error, stand, channel);
+        String remain = getResult();
+        if (echoLogger.isEnabled()) {
+            log.info("end monitor {} ssh. remain result:\n{}", sshParam.getHost(), echoLogger.abbreviate(remain));
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.service;
+
+import com.tang.ssh.domain.entity.SshExecResult;
+import com.tang.ssh.domain.exception.SshErrorCode;
+import com.tang.ssh.domain.exception.SshTangException;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 同一个shell通道上流水线执行的一批命令
+ * <p>
+ * 每条命令前后各追加一条输出唯一标记的echo命令，结束标记带上命令的退出码$?，
+ * 所有命令一次性写入通道，回显按标记拆分给各条命令，不再依赖结束符判断命令结束，
+ * 一批命令只需要等待一次网络往返
+ * <p>
+ * 标记在echo命令中被引号拆开，命令本身的回显不会被误认为标记
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/17
+ */
+final class SshPipeline {
+    private final String marker = "__TANG_PIPE_" + UUID.randomUUID().toString().replace("-", "") + "_";
+
+    @Getter
+    private final List<String> commands;
+
+    @Getter
+    private final List<CompletableFuture<SshExecResult>> futures = new ArrayList<>();
+
+    /**
+     * 还没有拆分的回显
+     */
+    private final StringBuilder echo = new StringBuilder();
+
+    /**
+     * 已经拆分出结果、还没有通知的命令
+     */
+    private final List<SshExecResult> ready = new ArrayList<>();
+
+    /**
+     * 正在等待回显的命令
+     */
+    private int current = 0;
+
+    /**
+     * 当前命令的输出在回显中的起始位置, -1表示还没有收到开始标记
+     */
+    private int outputStart = -1;
+
+    /**
+     * 下次查找标记的起始位置, 已经查找过的回显不再重复查找
+     */
+    private int scanFrom = 0;
+
+    /**
+     * 当前命令的开始标记
+     */
+    private String beginMarker;
+
+    /**
+     * 当前命令的结束标记, 后面跟着退出码
+     */
+    private String endMarker;
+
+    /**
+     * 已经通知结果的命令数
+     */
+    private int published = 0;
+
+    SshPipeline(List<String> commands) {
+        this.commands = List.copyOf(commands);
+        this.commands.forEach(command -> futures.add(new CompletableFuture<>()));
+        updateMarkers();
+    }
+
+    /**
+     * 需要写入通道的脚本
+     *
+     * @return 所有命令及其标记命令, 每条一行
+     */
+    String getScript() {
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < commands.size(); i++) {
+            script.append(markerCommand("B" + i + ":")).append('\n');
+            script.append(commands.get(i)).append('\n');
+            script.append(markerCommand("E" + i + ":$?")).append('\n');
+        }
+        return script.toString();
+    }
+
+    private String markerCommand(String suffix) {
+        return "echo \"%s\"\"%s\"".formatted(marker, suffix);
+    }
+
+    /**
+     * 追加回显并按标记拆分, 调用者负责加锁
+     *
+     * @param text 新到达的回显
+     * @return true表示有命令执行结束
+     */
+    boolean append(String text) {
+        echo.append(text);
+        boolean progress = false;
+        while (current < commands.size() && split()) {
+            progress = true;
+        }
+        return progress;
+    }
+
+    private boolean split() {
+        if (outputStart < 0) {
+            int begin = echo.indexOf(beginMarker, scanFrom);
+            if (begin < 0) {
+                scanFrom = tailStart(beginMarker);
+                return false;
+            }
+            int lineEnd = echo.indexOf("\n", begin);
+            if (lineEnd < 0) {
+                scanFrom = begin;
+                return false;
+            }
+            echo.delete(0, lineEnd + 1);
+            outputStart = 0;
+            scanFrom = 0;
+        }
+        for (int end = echo.indexOf(endMarker, scanFrom); end >= 0; end = echo.indexOf(endMarker, end + 1)) {
+            int lineEnd = echo.indexOf("\n", end);
+            if (lineEnd < 0) {
+                // 退出码还没有收到完整的一行
+                scanFrom = end;
+                return false;
+            }
+            Integer exitCode = parseExitCode(end + endMarker.length(), lineEnd);
+            if (exitCode == null) {
+                continue;
+            }
+            String output = clean(commands.get(current), echo.substring(outputStart, end));
+            synchronized (ready) {
+                ready.add(new SshExecResult(exitCode, output, ""));
+            }
+            echo.delete(0, lineEnd + 1);
+            outputStart = -1;
+            scanFrom = 0;
+            current++;
+            updateMarkers();
+            return true;
+        }
+        scanFrom = tailStart(endMarker);
+        return false;
+    }
+
+    /**
+     * 标记可能只收到了一部分, 下次从可能包含标记开头的位置继续查找
+     *
+     * @param marker 标记
+     * @return 下次查找的起始位置
+     */
+    private int tailStart(String marker) {
+        return Math.max(echo.length() - marker.length() + 1, Math.max(outputStart, 0));
+    }
+
+    /**
+     * 解析结束标记后面的退出码, 格式为-?\d+\r?\n
+     *
+     * @param start   退出码的起始位置
+     * @param lineEnd 换行符的位置
+     * @return 格式不对时返回null
+     */
+    private Integer parseExitCode(int start, int lineEnd) {
+        int stop = lineEnd > start && echo.charAt(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+        int digitStart = stop > start && echo.charAt(start) == '-' ? start + 1 : start;
+        // 退出码只有0到255, 超过9位的一定不是退出码
+        if (digitStart >= stop || stop - digitStart > 9) {
+            return null;
+        }
+        for (int i = digitStart; i < stop; i++) {
+            char c = echo.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+        }
+        return Integer.parseInt(echo, start, stop, 10);
+    }
+
+    private void updateMarkers() {
+        beginMarker = marker + "B" + current + ":";
+        endMarker = marker + "E" + current + ":";
+    }
+
+    /**
+     * 去掉命令本身与结束标记命令的回显
+     *
+     * @param command 命令
+     * @param output  两个标记之间的回显
+     * @return 命令的输出
+     */
+    private String clean(String command, String output) {
+        String endCommand = markerCommand("E" + current + ":$?");
+        List<String> lines = new ArrayList<>();
+        boolean isFirstLine = true;
+        for (String line : output.split("\n", -1)) {
+            line = line.replace("\r", "");
+            if (isFirstLine && line.endsWith(command)) {
+                isFirstLine = false;
+                continue;
+            }
+            isFirstLine = false;
+            if (!line.contains(endCommand)) {
+                lines.add(line);
+            }
+        }
+        return String.join("\n", lines).trim();
+    }
+
+    /**
+     * 通知已经拆分出结果的命令, 不能在持有回显锁时调用, 避免回调阻塞io线程
+     */
+    synchronized void publish() {
+        List<SshExecResult> results;
+        synchronized (ready) {
+            results = new ArrayList<>(ready);
+            ready.clear();
+        }
+        for (SshExecResult result : results) {
+            futures.get(published++).complete(result);
+        }
+    }
+
+    /**
+     * 所有命令是否都已经拆分出结果
+     *
+     * @return true表示已经全部结束
+     */
+    boolean isDone() {
+        return current >= commands.size();
+    }
+
+    /**
+     * 已经拆分出结果的命令数, 调用者负责加锁
+     *
+     * @return 命令数
+     */
+    int getSplitCount() {
+        return current;
+    }
+
+    /**
+     * 没有结果的命令全部以异常结束
+     *
+     * @param errorCode 错误码
+     */
+    synchronized void fail(SshErrorCode errorCode) {
+        publish();
+        for (int i = published; i < futures.size(); i++) {
+            futures.get(i).completeExceptionally(new SshTangException(errorCode, commands.get(i)));
+        }
+        published = futures.size();
+    }
+
+    /**
+     * 没有结果的命令全部以同一个异常结束, 比如没有租用到shell通道
+     *
+     * @param exception 异常
+     */
+    synchronized void fail(SshTangException exception) {
+        publish();
+        for (int i = published; i < futures.size(); i++) {
+            futures.get(i).completeExceptionally(exception);
+        }
+        published = futures.size();
+    }
+}
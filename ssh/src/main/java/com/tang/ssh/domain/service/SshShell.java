@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.service;
+
+import com.tang.base.utils.CloseUtils;
+import com.tang.ssh.domain.entity.SshParam;
+import com.tang.ssh.domain.exception.SshErrorCode;
+import com.tang.ssh.domain.exception.SshTangException;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.sshd.client.channel.ChannelShell;
+import org.apache.sshd.client.channel.ClientChannel;
+import org.apache.sshd.client.channel.PtyCapableChannelSession;
+import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.common.channel.PtyChannelConfigurationHolder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个交互式shell通道及其监视器
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/2
+ */
+@Slf4j
+public class SshShell implements Closeable {
+    private final ChannelShell channel;
+
+    @Getter
+    private final SshMonitor monitor;
+
+    private SshShell(SshParam sshParam, ChannelShell channel) {
+        this.channel = channel;
+        this.monitor = new SshMonitor(sshParam, channel);
+        monitor.start();
+        // 将首次登录连接的命令都清掉
+        monitor.cleanLoginEcho();
+    }
+
+    /**
+     * 在session上打开一个新的shell通道
+     *
+     * @param sshParam ssh连接参数
+     * @param session  连接session
+     * @return shell通道
+     * @throws SshTangException 创建失败
+     */
+    public static SshShell open(SshParam sshParam, ClientSession session) throws SshTangException {
+        return new SshShell(sshParam, createShellChannel(sshParam, session));
+    }
+
+    /**
+     * xterm类型才能支持top命令, 不过直接发送top命令会有乱码, 最好使用top -b -n 1(b,批处理模式，n执行n次)
+     * <p>
+     * 可以参考{@link PtyCapableChannelSession#resolvePtyType(PtyChannelConfigurationHolder)}
+     * 这里设置为xterm(命令行执行echo $TERM获取终端类型)，部分命令的回显会带有乱码，需要先执行命令：bind 'set enable-bracketed-paste off'，
+     * 最好设置为bash，否则日志中可能乱码
+     * <p>
+     * 通道以异步流方式打开，由{@link SshMonitor}注册回调读取输出
+     *
+     * @param sshParam ssh连接参数
+     * @param session  连接session
+     * @return 创建好的通道
+     * @throws SshTangException 创建失败
+     * @see <a href="https://askubuntu.com/questions/662222/why-bracketed-paste-mode-is-enabled-sporadically-in-my-terminal-screen">Why bracketed paste mode is enabled sporadically in my terminal screen</a>
+     * @see <a href="https://stackoverflow.com/questions/42212099/how-do-i-disable-the-weird-characters-from-bracketed-paste-mode-on-the-mac-os">How do I disable the weird characters from "bracketed paste mode" on the Mac OS X default terminal</a>
+     */
+    private static ChannelShell createShellChannel(SshParam sshParam, ClientSession session) throws SshTangException {
+        try {
+            ChannelShell channel = session.createShellChannel();
+            channel.setPtyType("bash");
+            channel.setPtyLines(Integer.MAX_VALUE);
+            channel.setPtyColumns(Integer.MAX_VALUE);
+            channel.setUsePty(true);
+            channel.setStreaming(ClientChannel.Streaming.Async);
+            channel.open().verify(TimeUnit.SECONDS.toMillis(sshParam.getTimeoutSecond()));
+            return channel;
+        } catch (IOException e) {
+            log.error("create shell channel error.", e);
+            throw new SshTangException(SshErrorCode.CREATE_CHANNEL_ERROR);
+        }
+    }
+
+    /**
+     * 通道是否已关闭或者正在关闭, 此时不能再使用
+     *
+     * @return true表示已关闭
+     */
+    public boolean isClosed() {
+        return channel.isClosing();
+    }
+
+    @Override
+    public void close() throws IOException {
+        CloseUtils.close(monitor, channel);
+    }
+}
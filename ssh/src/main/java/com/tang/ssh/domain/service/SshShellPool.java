@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.service;
+
+import com.tang.base.utils.CloseUtils;
+import com.tang.ssh.domain.entity.SshParam;
+import com.tang.ssh.domain.exception.SshErrorCode;
+import com.tang.ssh.domain.exception.SshTangException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.sshd.client.session.ClientSession;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * shell通道池
+ * <p>
+ * 同一个session上复用多个shell通道，每条命令租用一个通道，用完归还，
+ * 不同通道上的命令可以并行执行，不需要重新建立tcp连接与认证
+ * <p>
+ * 通道按需创建，最多{@link SshParam#getShellChannelSize()}个
+ *
+ * @author TangAn
+ * @version 0.1
+ * @since 2023/12/2
+ */
+@Slf4j
+public class SshShellPool implements Closeable {
+    private final SshParam sshParam;
+
+    private final ClientSession session;
+
+    private final Semaphore permits;
+
+    private final Queue<SshShell> idleShells = new ConcurrentLinkedQueue<>();
+
+    private final Set<SshShell> allShells = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean close = false;
+
+    public SshShellPool(SshParam sshParam, ClientSession session) throws SshTangException {
+        this.sshParam = sshParam;
+        this.session = session;
+        this.permits = new Semaphore(Math.max(sshParam.getShellChannelSize(), 1), true);
+        // 先创建一个通道，连接不可用时尽早失败
+        idleShells.offer(open());
+    }
+
+    /**
+     * 租用一个shell通道, 没有空闲通道且已达上限时等待, 最多等待{@link SshParam#getTimeoutSecond()}秒
+     * <p>
+     * 异步命令会一直占用通道直到结束它的指令, 不限制等待时间会让之后的命令永远阻塞
+     *
+     * @param command 需要在通道上执行的命令, 等待超时时用于提示
+     * @return shell通道, 用完必须调用{@link SshShellPool#release(SshShell)}归还
+     * @throws SshTangException 等待超时、等待被中断或者创建通道失败
+     */
+    public SshShell lease(String command) throws SshTangException {
+        checkClose();
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(sshParam.getTimeoutSecond(), TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            // 等待期间所属任务被取消, 与等待回显时被中断一样报告为中断, 而不是普通的失败
+            Thread.currentThread().interrupt();
+            throw new SshTangException(SshErrorCode.COMMAND_INTERRUPTED, sshParam.getHost());
+        }
+        if (!acquired) {
+            log.error("lease shell channel of {} timeout, command: {}", sshParam.getHost(), command);
+            throw new SshTangException(SshErrorCode.COMMAND_TIMEOUT, command);
+        }
+        SshMetrics.recordWait(sshParam.getHost(), System.nanoTime() - start);
+        try {
+            SshShell shell;
+            while ((shell = idleShells.poll()) != null) {
+                if (!shell.isClosed()) {
+                    return shell;
+                }
+                discard(shell);
+            }
+            return open();
+        } catch (SshTangException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 归还shell通道
+     * <p>
+     * 不属于该池的通道(比如连接重建session之前租用的通道)直接关闭, 不占用该池的名额
+     *
+     * @param shell 租用的shell通道
+     */
+    public void release(SshShell shell) {
+        if (!allShells.contains(shell)) {
+            CloseUtils.close(shell);
+            return;
+        }
+        if (close || shell.isClosed()) {
+            discard(shell);
+        } else {
+            idleShells.offer(shell);
+        }
+        permits.release();
+    }
+
+    /**
+     * 等待租用通道的线程数
+     *
+     * @return 线程数
+     */
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * 通道已关闭时，使用新通道替换，租用关系不变
+     *
+     * @param shell 已关闭的通道
+     * @return 新的通道
+     * @throws SshTangException 创建失败
+     */
+    public SshShell reConnect(SshShell shell) throws SshTangException {
+        checkClose();
+        log.info("start reconnect {}@{}:{} channel.", sshParam.getUsername(), sshParam.getHost(), sshParam.getPort());
+        discard(shell);
+        SshShell newShell = open();
+        SshMetrics.recordReconnect(sshParam.getHost());
+        log.info("finish reconnect {}@{}:{} channel.", sshParam.getUsername(), sshParam.getHost(), sshParam.getPort());
+        return newShell;
+    }
+
+    private SshShell open() throws SshTangException {
+        SshShell shell = SshShell.open(sshParam, session);
+        allShells.add(shell);
+        log.info("open shell channel to {}, total: {}", sshParam.getHost(), allShells.size());
+        return shell;
+    }
+
+    private void discard(SshShell shell) {
+        allShells.remove(shell);
+        CloseUtils.close(shell);
+    }
+
+    private void checkClose() throws SshTangException {
+        if (close) {
+            throw new SshTangException(SshErrorCode.SSH_CONN_HAVE_CLOSE);
+        }
+    }
+
+    @Override
+    public void close() {
+        close = true;
+        idleShells.clear();
+        allShells.forEach(CloseUtils::close);
+        allShells.clear();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.application;
+
+import com.tang.ssh.domain.entity.SshHostResult;
+import com.tang.ssh.domain.entity.SshParam;
+import com.tang.ssh.domain.exception.SshErrorCode;
+import com.tang.ssh.domain.utils.SshTestUtils;
+import org.apache.sshd.server.SshServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.List;
+
+/**
+ * 批量执行器测试
+ */
+class SshBatchExecutorTest {
+    private static SshServer sshd;
+
+    private static SshServer sshdOther;
+
+    @BeforeAll
+    static void beforeAll() throws IOException {
+        sshd = SshTestUtils.createSshServer(0);
+        sshdOther = SshTestUtils.createSshServer(1);
+    }
+
+    @Test
+    @DisplayName("多台主机并发执行命令，每台主机都返回结果")
+    void should_return_result_of_every_host_when_send_to_hosts() throws IOException {
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closedPort = socket.getLocalPort();
+        }
+        SshParam unreachable = SshParam.builder().host(SshTestUtils.host).port(closedPort)
+            .username(SshTestUtils.username).password(SshTestUtils.password).build();
+        List<SshParam> sshParams = List.of(SshTestUtils.createSshParam(sshd, null),
+            SshTestUtils.createSshParam(sshdOther, null), unreachable);
+
+        List<SshHostResult> results = SshBatchExecutor.sendCommand(sshParams, "pwd", 2);
+
+        Assertions.assertEquals(3, results.size());
+        for (SshHostResult result : results) {
+            if (result.getSshParam() == unreachable) {
+                Assertions.assertFalse(result.isSuccess());
+                Assertions.assertEquals(SshErrorCode.HOST_CONNECT_FAIL.getCode(), result.getErrorCode());
+            } else {
+                Assertions.assertTrue(result.isSuccess());
+                Assertions.assertEquals("/home/test", result.getEcho());
+            }
+        }
+    }
+
+    @AfterAll
+    static void afterAll() throws IOException {
+        sshd.close();
+        sshdOther.close();
+    }
+}
@@ -6,12 +6,22 @@ package com.tang.ssh.application;
 
 import com.tang.base.exception.BaseException;
 import com.tang.base.utils.ThreadUtils;
+import com.tang.ssh.domain.entity.SshExecResult;
+import com.tang.ssh.domain.entity.SshHostMetrics;
 import com.tang.ssh.domain.entity.SshOrder;
 import com.tang.ssh.domain.entity.SshParam;
+import com.tang.ssh.domain.entity.SshPoolConfig;
+import com.tang.ssh.domain.entity.SshTransportProfile;
 import com.tang.ssh.domain.exception.SshErrorCode;
 import com.tang.ssh.domain.exception.SshTangException;
 import com.tang.ssh.domain.service.SshConnection;
+import com.tang.ssh.domain.service.SshMetrics;
+import com.tang.ssh.domain.utils.CommandExecutionHelper;
 import com.tang.ssh.domain.utils.SshTestUtils;
+import org.apache.sshd.common.cipher.BuiltinCiphers;
+import org.apache.sshd.common.kex.BuiltinDHFactories;
+import org.apache.sshd.common.kex.KexProposalOption;
+import org.apache.sshd.server.ServerBuilder;
 import org.apache.sshd.server.SshServer;
 import org.apache.sshd.server.forward.AcceptAllForwardingFilter;
 import org.junit.jupiter.api.AfterAll;
@@ -21,7 +31,15 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * ssh管理器测试
@@ -48,6 +66,28 @@ class SshConnectionManagerTest {
         }
     }
 
+    @Test
+    @DisplayName("同一跳板机后面的多个主机共享跳板机session，主机都释放后关闭跳板机session")
+    void should_share_jump_session_when_connect_hosts_behind_same_jump() throws BaseException, IOException {
+        SshServer otherSshd = SshTestUtils.createSshServer(3);
+        try {
+            SshConnection first = SshConnectionManager.create(SshTestUtils.createSshParam(sshd, sshJump));
+            SshConnection second = SshConnectionManager.create(SshTestUtils.createSshParam(otherSshd, sshJump));
+            Assertions.assertEquals("/home/test", first.sendCommand("pwd"));
+            Assertions.assertEquals("/home/test", second.sendCommand("pwd"));
+            Assertions.assertEquals(1, SshConnectionManager.getJumpSessionSize());
+            Assertions.assertEquals(1, sshJump.getActiveSessions().size());
+
+            SshConnectionManager.releaseSshConnection(first);
+            Assertions.assertEquals(1, SshConnectionManager.getJumpSessionSize());
+            Assertions.assertEquals("/home/test", second.sendCommand("pwd"));
+            SshConnectionManager.releaseSshConnection(second);
+            Assertions.assertEquals(0, SshConnectionManager.getJumpSessionSize());
+        } finally {
+            otherSshd.close();
+        }
+    }
+
     @Test
     @DisplayName("参数正确时，获取回显成功")
     void should_get_echo_success_when_param_right() throws SshTangException, IOException {
@@ -66,6 +106,23 @@ class SshConnectionManagerTest {
         Assertions.assertEquals(sshConnection, SshConnectionManager.create(sshParam));
     }
 
+    @Test
+    @DisplayName("并发创建同一主机的连接时，共享同一个连接")
+    void should_return_same_conn_when_create_concurrently() throws Exception {
+        SshParam sshParam = SshTestUtils.createSshParam(sshd, null);
+        SshConnectionManager.releaseSshConnection(SshConnectionManager.create(sshParam));
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<SshConnection>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> SshConnectionManager.create(sshParam)));
+            }
+            SshConnection sshConnection = futures.get(0).get();
+            for (Future<SshConnection> future : futures) {
+                Assertions.assertSame(sshConnection, future.get());
+            }
+        }
+    }
+
     @Test
     @DisplayName("释放连接后，再次创建连接成功")
     void should_second_create_success_when_after_release() throws SshTangException, IOException {
@@ -91,6 +148,51 @@ class SshConnectionManagerTest {
         }
     }
 
+    @Test
+    @DisplayName("异步命令占用唯一的shell通道时，其他命令等待租用通道超时，不会永远阻塞")
+    void should_throw_timeout_when_lease_shell_held_by_async_command() throws SshTangException {
+        SshParam sshParam = SshParam.builder().host(SshTestUtils.host).port(sshd.getPort())
+            .username(SshTestUtils.username).password(SshTestUtils.password).timeoutSecond(1).build();
+        SshConnection sshConnection = SshConnectionManager.create(sshParam);
+        try {
+            sshConnection.sendCommandAsync("sleep 100");
+            SshTangException exception = Assertions.assertThrows(SshTangException.class,
+                () -> sshConnection.sendCommand("pwd"));
+            Assertions.assertEquals(SshErrorCode.COMMAND_TIMEOUT.getCode(), exception.getErrorCode().getCode());
+        } finally {
+            SshConnectionManager.releaseSshConnection(sshConnection);
+        }
+    }
+
+    @Test
+    @DisplayName("等待租用shell通道时线程被中断，抛出中断异常而不是普通的发送失败")
+    void should_throw_interrupted_when_interrupted_while_lease_shell() throws Exception {
+        SshParam sshParam = SshParam.builder().host(SshTestUtils.host).port(sshd.getPort())
+            .username(SshTestUtils.username).password(SshTestUtils.password).timeoutSecond(30).build();
+        SshConnection sshConnection = SshConnectionManager.create(sshParam);
+        try {
+            sshConnection.sendCommandAsync("sleep 100");
+            CompletableFuture<SshTangException> future = new CompletableFuture<>();
+            Thread thread = Thread.ofVirtual().start(() -> {
+                try {
+                    sshConnection.sendCommand("pwd");
+                    future.complete(null);
+                } catch (SshTangException e) {
+                    future.complete(e);
+                }
+            });
+            while (sshConnection.getWaitingCount() == 0) {
+                ThreadUtils.sleep(10, TimeUnit.MILLISECONDS);
+            }
+            thread.interrupt();
+            SshTangException exception = future.get(5, TimeUnit.SECONDS);
+            Assertions.assertNotNull(exception);
+            Assertions.assertEquals(SshErrorCode.COMMAND_INTERRUPTED.getCode(), exception.getErrorCode().getCode());
+        } finally {
+            SshConnectionManager.releaseSshConnection(sshConnection);
+        }
+    }
+
     @Test
     @DisplayName("发送top命令成功")
     void should_send_top_and_ctrl_c() throws SshTangException, IOException {
@@ -112,6 +214,243 @@ class SshConnectionManagerTest {
         Assertions.assertEquals(SshErrorCode.SSH_CONN_HAVE_CLOSE, exception.getErrorCode());
     }
 
+    @Test
+    @DisplayName("同一连接使用多个shell通道并发执行命令成功")
+    void should_get_echo_success_when_send_command_concurrently() throws Exception {
+        SshParam sshParam = SshParam.builder().host(SshTestUtils.host).port(sshd.getPort())
+            .username(SshTestUtils.username).password(SshTestUtils.password).shellChannelSize(4).build();
+        // 连接池中可能已有同一主机的连接，先释放掉
+        SshConnectionManager.releaseSshConnection(SshConnectionManager.create(sshParam));
+        try (SshConnection sshConnection = SshConnectionManager.create(sshParam);
+            ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(executor.submit(() -> sshConnection.sendCommand("pwd")));
+            }
+            for (Future<String> future : futures) {
+                Assertions.assertEquals("/home/test", future.get());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("流水线执行多条命令时，按顺序获取每条命令的回显与退出码")
+    void should_get_echo_and_exit_code_of_every_command_when_send_pipeline() throws Exception {
+        CommandExecutionHelper.commandToResult.put("cat prompt.txt", "root@host:~#\nend with #");
+        SshParam sshParam = SshTestUtils.createSshParam(sshd, null);
+        try (SshConnection sshConnection = SshConnectionManager.create(sshParam)) {
+            List<CompletableFuture<SshExecResult>> futures =
+                sshConnection.sendPipeline(List.of("pwd", "cat prompt.txt", "false", "pwd"));
+            Assertions.assertEquals(4, futures.size());
+            SshExecResult pwd = futures.get(0).get(10, TimeUnit.SECONDS);
+            Assertions.assertEquals("/home/test", pwd.getStdout());
+            Assertions.assertTrue(pwd.isSuccess());
+            Assertions.assertEquals("root@host:~#\nend with #", futures.get(1).get(10, TimeUnit.SECONDS).getStdout());
+            SshExecResult fail = futures.get(2).get(10, TimeUnit.SECONDS);
+            Assertions.assertEquals(1, fail.getExitCode());
+            Assertions.assertEquals("", fail.getStdout());
+            Assertions.assertEquals("/home/test", futures.get(3).get(10, TimeUnit.SECONDS).getStdout());
+            // 流水线结束后普通命令不受影响
+            Assertions.assertEquals("/home/test", sshConnection.sendCommand("pwd"));
+        } finally {
+            CommandExecutionHelper.commandToResult.remove("cat prompt.txt");
+        }
+    }
+
+    @Test
+    @DisplayName("流水线中的命令包含换行时，拒绝执行")
+    void should_throw_param_error_when_pipeline_command_contains_line_break() throws SshTangException, IOException {
+        SshParam sshParam = SshTestUtils.createSshParam(sshd, null);
+        try (SshConnection sshConnection = SshConnectionManager.create(sshParam)) {
+            SshTangException exception = Assertions.assertThrows(SshTangException.class,
+                () -> sshConnection.sendPipeline(List.of("pwd", "cd /tmp\npwd")));
+            Assertions.assertEquals(SshErrorCode.PARAM_ERROR, exception.getErrorCode());
+            Assertions.assertEquals("/home/test", sshConnection.sendCommand("pwd"));
+        }
+    }
+
+    @Test
+    @DisplayName("使用exec通道执行命令，获取输出与退出码成功")
+    void should_get_stdout_and_exit_code_when_send_exec() throws SshTangException, IOException {
+        SshParam sshParam = SshTestUtils.createSshParam(sshd, null);
+        try (SshConnection sshConnection = SshConnectionManager.create(sshParam)) {
+            SshExecResult result = sshConnection.sendExec("pwd");
+            Assertions.assertTrue(result.isSuccess());
+            Assertions.assertEquals("/home/test", result.getStdout());
+            SshExecResult fail = sshConnection.sendExec("unknown");
+            Assertions.assertEquals(127, fail.getExitCode());
+            Assertions.assertTrue(fail.getStderr().contains("command not found"));
+        }
+    }
+
+    @Test
+    @DisplayName("执行命令后，主机的命令耗时、收发字节数增加，连接池大小正确")
+    void should_record_metrics_when_send_command() throws SshTangException, IOException {
+        SshParam sshParam = SshTestUtils.createSshParam(sshd, null);
+        try (SshConnection sshConnection = SshConnectionManager.create(sshParam)) {
+            SshHostMetrics before = SshMetrics.snapshot(sshParam.getHost());
+            sshConnection.sendCommand("pwd");
+            sshConnection.sendExec("pwd");
+            SshHostMetrics after = SshMetrics.snapshot(sshParam.getHost());
+            Assertions.assertTrue(after.getCommandCount() - before.getCommandCount() >= 2);
+            Assertions.assertTrue(after.getBytesIn() > before.getBytesIn());
+            Assertions.assertTrue(after.getBytesOut() > before.getBytesOut());
+            Assertions.assertEquals(after.getCommandCount(),
+                after.getCommandLatencyHistogram().get(Long.MAX_VALUE));
+            Assertions.assertTrue(SshConnectionManager.getPoolSize() >= 1);
+            Assertions.assertEquals(0, SshConnectionManager.getWaitingCount());
+        }
+    }
+
+    @Test
+    @DisplayName("等待回显时线程被中断，命令被中断并关闭通道，之后的命令使用新通道执行成功")
+    void should_throw_interrupted_when_thread_interrupted() throws Exception {
+        SshParam sshParam = SshTestUtils.createSshParam(sshd, null);
+        try (SshConnection sshConnection = SshConnectionManager.create(sshParam)) {
+            CompletableFuture<SshTangException> future = new CompletableFuture<>();
+            Thread thread = Thread.ofVirtual().start(() -> {
+                try {
+                    sshConnection.sendCommand("sleep 100");
+                    future.complete(null);
+                } catch (SshTangException e) {
+                    future.complete(e);
+                }
+            });
+            TimeUnit.MILLISECONDS.sleep(500);
+            thread.interrupt();
+            SshTangException exception = future.get(3, TimeUnit.SECONDS);
+            Assertions.assertNotNull(exception);
+            Assertions.assertEquals(SshErrorCode.COMMAND_INTERRUPTED.getCode(), exception.getErrorCode().getCode());
+            Assertions.assertEquals("/home/test", sshConnection.sendCommand("pwd"));
+        }
+    }
+
+    @Test
+    @DisplayName("流式发送命令时，按行收到所有回显")
+    void should_receive_all_lines_when_send_command_by_stream() throws SshTangException, IOException {
+        int lineCount = 50000;
+        CommandExecutionHelper.commandToResult.put("cat big.log", IntStream.range(0, lineCount)
+            .mapToObj("line-%05d"::formatted).collect(Collectors.joining("\n")));
+        SshParam sshParam = SshTestUtils.createSshParam(sshd, null);
+        try (SshConnection sshConnection = SshConnectionManager.create(sshParam)) {
+            List<String> lines = new ArrayList<>();
+            sshConnection.sendCommand("cat big.log", lines::add);
+            Assertions.assertEquals(lineCount, lines.size());
+            Assertions.assertEquals("line-00000", lines.get(0));
+            Assertions.assertEquals("line-%05d".formatted(lineCount - 1), lines.get(lineCount - 1));
+            Assertions.assertEquals("/home/test", sshConnection.sendCommand("pwd"));
+        } finally {
+            CommandExecutionHelper.commandToResult.remove("cat big.log");
+        }
+    }
+
+    @Test
+    @DisplayName("流式发送命令时等待回显超时，抛出超时异常，之后的命令使用新通道执行成功")
+    void should_throw_timeout_when_stream_command_not_over() throws SshTangException {
+        SshParam sshParam = SshParam.builder().host(SshTestUtils.host).port(sshd.getPort())
+            .username(SshTestUtils.username).password(SshTestUtils.password).timeoutSecond(1).build();
+        SshConnectionManager.releaseSshConnection(SshConnectionManager.create(sshParam));
+        SshConnection sshConnection = SshConnectionManager.create(sshParam);
+        try {
+            List<String> lines = new ArrayList<>();
+            SshTangException exception = Assertions.assertThrows(SshTangException.class,
+                () -> sshConnection.sendCommand("sleep 100", lines::add));
+            Assertions.assertEquals(SshErrorCode.COMMAND_TIMEOUT.getCode(), exception.getErrorCode().getCode());
+            Assertions.assertTrue(lines.isEmpty());
+            Assertions.assertEquals("/home/test", sshConnection.sendCommand("pwd"));
+        } finally {
+            SshConnectionManager.releaseSshConnection(sshConnection);
+        }
+    }
+
+    @Test
+    @DisplayName("连接池已满时，最久未使用的空闲连接被移出连接池，持有该连接的调用方仍然可以继续使用")
+    void should_reconnect_held_conn_when_evicted_for_pool_full() throws SshTangException {
+        SshConnectionManager.setPoolConfig(SshPoolConfig.builder().maxTotal(1).build());
+        SshConnection first = null;
+        try {
+            first = SshConnectionManager.create(SshTestUtils.createSshParam(sshd, null));
+            SshConnection second = SshConnectionManager.create(SshTestUtils.createSshParam(sshJump, null));
+            Assertions.assertFalse(first.isClose());
+            Assertions.assertFalse(first.isAlive());
+            Assertions.assertEquals("/home/test", second.sendCommand("pwd"));
+            Assertions.assertEquals("/home/test", first.sendCommand("pwd"));
+            Assertions.assertTrue(first.isAlive());
+            SshConnectionManager.releaseSshConnection(second);
+        } finally {
+            SshConnectionManager.releaseSshConnection(first);
+            SshConnectionManager.setPoolConfig(SshPoolConfig.builder().build());
+        }
+    }
+
+    @Test
+    @DisplayName("连接池已满且连接都在使用中时，创建连接失败")
+    void should_throw_exception_when_pool_full_and_conn_in_use() throws SshTangException {
+        SshConnectionManager.setPoolConfig(SshPoolConfig.builder().maxTotal(1).build());
+        try {
+            SshConnection sshConnection = SshConnectionManager.create(SshTestUtils.createSshParam(sshd, null));
+            List<Integer> errorCodes = new ArrayList<>();
+            sshConnection.sendCommand("pwd", line -> {
+                try {
+                    SshConnectionManager.create(SshTestUtils.createSshParam(sshJump, null));
+                } catch (SshTangException e) {
+                    errorCodes.add(e.getErrorCode().getCode());
+                }
+            });
+            Assertions.assertEquals(List.of(SshErrorCode.CONN_POOL_FULL.getCode()), errorCodes);
+            Assertions.assertFalse(sshConnection.isClose());
+            SshConnectionManager.releaseSshConnection(sshConnection);
+        } finally {
+            SshConnectionManager.setPoolConfig(SshPoolConfig.builder().build());
+        }
+    }
+
+    @Test
+    @DisplayName("连接空闲超时后session被后台关闭，持有的连接再次使用时重新建立session")
+    void should_reconnect_held_conn_when_idle_timeout() throws SshTangException {
+        SshConnectionManager.setPoolConfig(SshPoolConfig.builder().maxIdleSecond(1).build());
+        try {
+            SshParam sshParam = SshTestUtils.createSshParam(sshd, null);
+            SshConnection sshConnection = SshConnectionManager.create(sshParam);
+            Assertions.assertEquals("/home/test", sshConnection.sendCommand("pwd"));
+            ThreadUtils.sleep(1100, TimeUnit.MILLISECONDS);
+            SshConnectionManager.evict();
+            Assertions.assertFalse(sshConnection.isClose());
+            Assertions.assertFalse(sshConnection.isAlive());
+            Assertions.assertEquals("/home/test", sshConnection.sendCommand("pwd"));
+            Assertions.assertTrue(sshConnection.isAlive());
+            Assertions.assertSame(sshConnection, SshConnectionManager.create(sshParam));
+        } finally {
+            SshConnectionManager.setPoolConfig(SshPoolConfig.builder().build());
+        }
+    }
+
+    @Test
+    @DisplayName("服务端只支持老旧算法时，默认配置连接失败，legacy配置连接成功")
+    void should_connect_success_when_use_legacy_profile() throws IOException {
+        SshServer legacySshd = SshTestUtils.createSshServer(2);
+        legacySshd.setKeyExchangeFactories(List.of(ServerBuilder.DH2KEX.apply(BuiltinDHFactories.dhg14)));
+        legacySshd.setCipherFactories(List.of(BuiltinCiphers.tripledescbc));
+        try {
+            SshParam sshParam = SshTestUtils.createSshParam(legacySshd, null);
+            SshTangException exception = Assertions.assertThrows(SshTangException.class,
+                () -> SshConnectionManager.create(sshParam));
+            Assertions.assertEquals(SshErrorCode.SERVER_ALGORITHMS_UN_SUPPORT, exception.getErrorCode());
+
+            SshParam legacyParam = SshParam.builder().host(SshTestUtils.host).port(legacySshd.getPort())
+                .username(SshTestUtils.username).password(SshTestUtils.password)
+                .transportProfile(SshTransportProfile.of("legacy")).build();
+            try (SshConnection sshConnection = SshConnectionManager.create(legacyParam)) {
+                Assertions.assertEquals("/home/test", sshConnection.sendCommand("pwd"));
+                Assertions.assertEquals("3des-cbc", sshConnection.getNegotiatedAlgorithm(KexProposalOption.C2SENC));
+                Assertions.assertEquals("diffie-hellman-group14-sha1",
+                    sshConnection.getNegotiatedAlgorithm(KexProposalOption.ALGORITHMS));
+            }
+        } finally {
+            legacySshd.close();
+        }
+    }
+
     @AfterAll
     static void afterAll() throws IOException {
         sshd.close();
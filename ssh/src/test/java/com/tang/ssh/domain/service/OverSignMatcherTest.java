@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+/**
+ * 结束符匹配器测试
+ */
+class OverSignMatcherTest {
+    @Test
+    @DisplayName("回显分多次到达且末尾有空白时，匹配成功")
+    void should_match_when_sign_split_and_end_with_blank() {
+        OverSignMatcher matcher = new OverSignMatcher(List.of("$", "[Y/n]"));
+        matcher.append("continue? [Y");
+        Assertions.assertFalse(matcher.isOver());
+        matcher.append("/n]  \r\n");
+        Assertions.assertTrue(matcher.isOver());
+    }
+
+    @Test
+    @DisplayName("结束符之后还有其他回显时，匹配失败")
+    void should_not_match_when_echo_after_sign() {
+        OverSignMatcher matcher = new OverSignMatcher(List.of("$"));
+        matcher.append("$ pwd\n/home/test");
+        Assertions.assertFalse(matcher.isOver());
+    }
+
+    @Test
+    @DisplayName("结束符中间包含空白时，匹配成功")
+    void should_match_when_sign_contains_blank() {
+        OverSignMatcher matcher = new OverSignMatcher(List.of("a b"));
+        matcher.append("xa ");
+        Assertions.assertFalse(matcher.isOver());
+        matcher.append("b\n");
+        Assertions.assertTrue(matcher.isOver());
+    }
+
+    @Test
+    @DisplayName("重置后，之前的回显不再参与匹配")
+    void should_not_match_when_reset() {
+        OverSignMatcher matcher = new OverSignMatcher(List.of("#"));
+        matcher.append("root#");
+        Assertions.assertTrue(matcher.isOver());
+        matcher.reset();
+        Assertions.assertFalse(matcher.isOver());
+    }
+}
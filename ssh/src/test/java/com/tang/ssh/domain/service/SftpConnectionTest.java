@@ -4,11 +4,19 @@
 
 package com.tang.ssh.domain.service;
 
+import cn.hutool.core.io.FileUtil;
 import com.tang.base.exception.BaseException;
 import com.tang.ssh.application.SshConnectionManager;
+import com.tang.ssh.domain.entity.SftpSyncOption;
+import com.tang.ssh.domain.entity.SftpSyncResult;
+import com.tang.ssh.domain.entity.SftpTransferOption;
 import com.tang.ssh.domain.entity.SshParam;
+import com.tang.ssh.domain.entity.SshTransportProfile;
+import com.tang.ssh.domain.exception.SshErrorCode;
 import com.tang.ssh.domain.exception.SshTangException;
 import com.tang.ssh.domain.utils.SshTestUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.sshd.common.kex.KexProposalOption;
 import org.apache.sshd.server.SshServer;
 import org.apache.sshd.server.forward.AcceptAllForwardingFilter;
 import org.junit.jupiter.api.AfterAll;
@@ -20,12 +28,24 @@ import org.junit.jupiter.api.Order;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * sftp测试
  */
+@Slf4j
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
 class SftpConnectionTest {
     private static SshServer sshd;
@@ -91,6 +111,275 @@ class SftpConnectionTest {
         }
     }
 
+    @Test
+    @Order(2)
+    @DisplayName("分段并行上传下载大文件时，内容一致且进度完整")
+    void should_keep_content_when_transfer_by_ranges() throws BaseException, IOException {
+        Path local = createRandomFile("target/transfer_local.bin", 20 * 1024 * 1024 + 123);
+        Path downloaded = Path.of("target/transfer_downloaded.bin");
+        List<Long> progresses = new ArrayList<>();
+        SftpTransferOption option = SftpTransferOption.builder().channelSize(4).minRangeSize(1024 * 1024)
+            .progressListener((transferred, total) -> progresses.add(transferred)).build();
+        SshParam sshParam = SshTestUtils.createSshParam(sshd, null);
+        try (SshConnection connection = SshConnectionManager.create(sshParam);
+            SftpConnection sftpConnection = connection.createSftpConnection()
+        ) {
+            sftpConnection.upload(local.toString(), "transfer/remote.bin", option);
+            Assertions.assertEquals(-1, Files.mismatch(local, Path.of("target/transfer/remote.bin")));
+            Assertions.assertEquals(Files.size(local), progresses.get(progresses.size() - 1));
+            sftpConnection.download("transfer/remote.bin", downloaded.toString(), option);
+            Assertions.assertEquals(-1, Files.mismatch(local, downloaded));
+        } finally {
+            FileUtil.del("target/transfer");
+            Files.deleteIfExists(local);
+            Files.deleteIfExists(downloaded);
+        }
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("单通道与多通道传输吞吐量对比")
+    void should_transfer_success_when_benchmark_channel_size() throws BaseException, IOException {
+        Path local = createRandomFile("target/benchmark_local.bin", 32 * 1024 * 1024);
+        SshParam sshParam = SshTestUtils.createSshParam(sshd, null);
+        try (SshConnection connection = SshConnectionManager.create(sshParam);
+            SftpConnection sftpConnection = connection.createSftpConnection()
+        ) {
+            for (int channelSize : new int[] {1, 4}) {
+                SftpTransferOption option = SftpTransferOption.builder().channelSize(channelSize)
+                    .minRangeSize(1024 * 1024).build();
+                long start = System.nanoTime();
+                sftpConnection.upload(local.toString(), "benchmark_remote.bin", option);
+                long upload = System.nanoTime() - start;
+                start = System.nanoTime();
+                sftpConnection.download("benchmark_remote.bin", "target/benchmark_downloaded.bin", option);
+                long download = System.nanoTime() - start;
+                log.info("channel size: {}, upload: {}MB/s, download: {}MB/s", channelSize,
+                    speed(Files.size(local), upload), speed(Files.size(local), download));
+                Assertions.assertEquals(-1, Files.mismatch(local, Path.of("target/benchmark_downloaded.bin")));
+            }
+        } finally {
+            Files.deleteIfExists(local);
+            Files.deleteIfExists(Path.of("target/benchmark_remote.bin"));
+            Files.deleteIfExists(Path.of("target/benchmark_downloaded.bin"));
+        }
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("远程已有部分文件且中间有损坏时，从损坏的块继续上传")
+    void should_resume_from_broken_block_when_upload() throws BaseException, IOException {
+        int blockSize = 1024 * 1024;
+        Path local = createRandomFile("target/resume_local.bin", 10 * blockSize + 7);
+        byte[] partial = Arrays.copyOf(Files.readAllBytes(local), 6 * blockSize);
+        partial[4 * blockSize + 100] ^= 1;
+        Path remote = Files.write(Path.of("target/resume_remote.bin"), partial);
+        List<Long> progresses = new ArrayList<>();
+        SftpTransferOption option = SftpTransferOption.builder().resume(true).verify(true).blockSize(blockSize)
+            .progressListener((transferred, total) -> progresses.add(transferred)).build();
+        SshParam sshParam = SshTestUtils.createSshParam(sshd, null);
+        try (SshConnection connection = SshConnectionManager.create(sshParam);
+            SftpConnection sftpConnection = connection.createSftpConnection()
+        ) {
+            sftpConnection.upload(local.toString(), "resume_remote.bin", option);
+            Assertions.assertEquals(-1, Files.mismatch(local, remote));
+            Assertions.assertTrue(progresses.get(0) > 4L * blockSize);
+            Assertions.assertTrue(progresses.get(0) < 5L * blockSize);
+        } finally {
+            Files.deleteIfExists(local);
+            Files.deleteIfExists(remote);
+        }
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("本地已有部分文件时，继续下载剩余部分")
+    void should_resume_from_local_size_when_download() throws BaseException, IOException {
+        int blockSize = 1024 * 1024;
+        Path remote = createRandomFile("target/resume_remote_source.bin", 5 * blockSize + 3);
+        Path local = Files.write(Path.of("target/resume_local_partial.bin"),
+            Arrays.copyOf(Files.readAllBytes(remote), 3 * blockSize));
+        List<Long> progresses = new ArrayList<>();
+        SftpTransferOption option = SftpTransferOption.builder().resume(true).verify(true).blockSize(blockSize)
+            .progressListener((transferred, total) -> progresses.add(transferred)).build();
+        SshParam sshParam = SshTestUtils.createSshParam(sshd, null);
+        try (SshConnection connection = SshConnectionManager.create(sshParam);
+            SftpConnection sftpConnection = connection.createSftpConnection()
+        ) {
+            sftpConnection.download("resume_remote_source.bin", local.toString(), option);
+            Assertions.assertEquals(-1, Files.mismatch(remote, local));
+            Assertions.assertTrue(progresses.get(0) > 3L * blockSize);
+        } finally {
+            Files.deleteIfExists(local);
+            Files.deleteIfExists(remote);
+        }
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("同步目录时只传输变化的文件，并删除多余的文件")
+    void should_transfer_changed_files_when_sync_directory() throws BaseException, IOException {
+        Path local = Path.of("target/sync_local");
+        Path remote = Path.of("target/sync_remote");
+        Path pulled = Path.of("target/sync_pulled");
+        writeString(local.resolve("a/1.txt"), "one");
+        writeString(local.resolve("a/b/2.txt"), "two");
+        writeString(local.resolve("3.txt"), "three");
+        writeString(remote.resolve("3.txt"), "THREE");
+        Files.setLastModifiedTime(remote.resolve("3.txt"), FileTime.fromMillis(0));
+        writeString(remote.resolve("extra.txt"), "extra");
+        writeString(remote.resolve("extra_dir/x.txt"), "x");
+        SshParam sshParam = SshTestUtils.createSshParam(sshd, null);
+        try (SshConnection connection = SshConnectionManager.create(sshParam);
+            SftpConnection sftpConnection = connection.createSftpConnection()
+        ) {
+            SftpSyncOption option = SftpSyncOption.builder().delete(true).build();
+            SftpSyncResult first = sftpConnection.syncDirectory(local.toString(), "sync_remote", option);
+            Assertions.assertEquals(List.of("3.txt", "a/1.txt", "a/b/2.txt"), first.getTransferred());
+            Assertions.assertEquals(List.of("extra_dir/x.txt", "extra_dir", "extra.txt"), first.getDeleted());
+            Assertions.assertEquals("three", Files.readString(remote.resolve("3.txt")));
+            Assertions.assertEquals("two", Files.readString(remote.resolve("a/b/2.txt")));
+
+            SftpSyncResult second = sftpConnection.syncDirectory(local.toString(), "sync_remote", option);
+            Assertions.assertTrue(second.getTransferred().isEmpty());
+            Assertions.assertEquals(3, second.getSkipped());
+
+            writeString(local.resolve("a/1.txt"), "new");
+            SftpSyncOption checksum = SftpSyncOption.builder().checksum(true).build();
+            SftpSyncResult third = sftpConnection.syncDirectory(local.toString(), "sync_remote", checksum);
+            Assertions.assertEquals(List.of("a/1.txt"), third.getTransferred());
+
+            SftpSyncResult pull = sftpConnection.syncDirectoryFromRemote("sync_remote", pulled.toString(), option);
+            Assertions.assertEquals(3, pull.getTransferred().size());
+            Assertions.assertEquals("new", Files.readString(pulled.resolve("a/1.txt")));
+            Assertions.assertEquals(Files.getLastModifiedTime(remote.resolve("3.txt")),
+                Files.getLastModifiedTime(pulled.resolve("3.txt")));
+        } finally {
+            FileUtil.del(local);
+            FileUtil.del(remote);
+            FileUtil.del(pulled);
+        }
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("同一连接并发租用sftp连接传输时，内容一致且归还后连接空闲")
+    void should_keep_content_when_lease_sftp_concurrently() throws Exception {
+        SshParam sshParam = SshParam.builder().host(SshTestUtils.host).port(sshd.getPort())
+            .username(SshTestUtils.username).password(SshTestUtils.password).sftpChannelSize(2).build();
+        // 连接池中可能已有同一主机的连接，先释放掉
+        SshConnectionManager.releaseSshConnection(SshConnectionManager.create(sshParam));
+        Path local = createRandomFile("target/lease_local.bin", 1024 * 1024 + 5);
+        try (SshConnection connection = SshConnectionManager.create(sshParam);
+            ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                String remote = "lease/remote_%s.bin".formatted(i);
+                futures.add(executor.submit(() -> {
+                    try (SftpConnection sftpConnection = connection.createSftpConnection()) {
+                        Assertions.assertFalse(connection.isIdle(0));
+                        sftpConnection.upload(local.toString(), remote);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            for (int i = 0; i < 8; i++) {
+                Assertions.assertEquals(-1, Files.mismatch(local, Path.of("target/lease/remote_%s.bin".formatted(i))));
+            }
+            Assertions.assertTrue(connection.isIdle(0));
+
+            SftpConnection closed = connection.createSftpConnection();
+            closed.close();
+            closed.close();
+            Assertions.assertTrue(closed.isClose());
+            SshTangException exception = Assertions.assertThrows(SshTangException.class,
+                () -> closed.download("lease/remote_0.bin", "target/lease_downloaded.bin"));
+            Assertions.assertEquals(SshErrorCode.SFTP_HAS_CLOSE, exception.getErrorCode());
+        } finally {
+            FileUtil.del("target/lease");
+            Files.deleteIfExists(local);
+        }
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("分段传输另外占用子系统池的名额，最多占用空闲的名额，归还后可以再次占用")
+    void should_limit_extra_channels_by_free_permits_of_pool() {
+        SshParam sshParam = SshParam.builder().host(SshTestUtils.host).port(sshd.getPort())
+            .username(SshTestUtils.username).password(SshTestUtils.password).sftpChannelSize(3).build();
+        try (SftpConnectionPool pool = new SftpConnectionPool(sshParam, null)) {
+            Assertions.assertEquals(3, pool.acquireExtra(5));
+            Assertions.assertEquals(0, pool.acquireExtra(1));
+            pool.releaseExtra(3);
+            Assertions.assertEquals(2, pool.acquireExtra(2));
+        }
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("各传输配置的吞吐量对比，协商的算法与配置一致")
+    void should_negotiate_profile_algorithms_when_benchmark_transport_profile() throws BaseException, IOException {
+        Path local = Path.of("target/profile_local.log");
+        try (BufferedWriter writer = Files.newBufferedWriter(local)) {
+            for (int i = 0; i < 300000; i++) {
+                writer.write("2023-12-17 10:00:00,%03d [INFO] send command to 127.0.0.%s success.%n"
+                    .formatted(i % 1000, i % 255));
+            }
+        }
+        try {
+            for (SshTransportProfile profile : SshTransportProfile.values()) {
+                SshParam sshParam = SshParam.builder().host(SshTestUtils.host).port(sshd.getPort())
+                    .username(SshTestUtils.username).password(SshTestUtils.password).transportProfile(profile).build();
+                // 连接池中可能已有同一主机的连接，先释放掉，保证使用新的配置创建连接
+                SshConnectionManager.releaseSshConnection(SshConnectionManager.create(sshParam));
+                try (SshConnection connection = SshConnectionManager.create(sshParam);
+                    SftpConnection sftpConnection = connection.createSftpConnection()
+                ) {
+                    long start = System.nanoTime();
+                    sftpConnection.upload(local.toString(), "profile_remote.log");
+                    long upload = System.nanoTime() - start;
+                    start = System.nanoTime();
+                    sftpConnection.download("profile_remote.log", "target/profile_downloaded.log");
+                    long download = System.nanoTime() - start;
+                    String cipher = connection.getNegotiatedAlgorithm(KexProposalOption.C2SENC);
+                    String compression = connection.getNegotiatedAlgorithm(KexProposalOption.C2SCOMP);
+                    log.info("profile: {}, cipher: {}, compression: {}, upload: {}MB/s, download: {}MB/s",
+                        profile.getProfileName(), cipher, compression, speed(Files.size(local), upload),
+                        speed(Files.size(local), download));
+                    Assertions.assertEquals(-1, Files.mismatch(local, Path.of("target/profile_downloaded.log")));
+                    if (profile.getCiphers() != null) {
+                        Assertions.assertEquals(profile.getCiphers().get(0), cipher);
+                    }
+                    if (profile.getCompressions() != null) {
+                        Assertions.assertEquals(profile.getCompressions().get(0), compression);
+                    }
+                }
+            }
+        } finally {
+            Files.deleteIfExists(local);
+            Files.deleteIfExists(Path.of("target/profile_remote.log"));
+            Files.deleteIfExists(Path.of("target/profile_downloaded.log"));
+        }
+    }
+
+    private static void writeString(Path path, String content) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, content);
+    }
+
+    private static Path createRandomFile(String path, int size) throws IOException {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return Files.write(Path.of(path), bytes);
+    }
+
+    private static String speed(long size, long costNanos) {
+        return "%.2f".formatted(size * 1e9 / costNanos / 1024 / 1024);
+    }
+
     @AfterAll
     static void afterAll() throws IOException {
         sshd.close();
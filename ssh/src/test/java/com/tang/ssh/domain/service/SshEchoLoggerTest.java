@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.service;
+
+import com.tang.ssh.domain.entity.SshEchoLogPolicy;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 回显日志策略测试
+ */
+class SshEchoLoggerTest {
+    private static final String ECHO = "0123456789".repeat(10);
+
+    @Test
+    @DisplayName("截断模式下，超过长度的回显只保留开头与结尾，并带上总长度")
+    void should_keep_head_and_tail_when_truncate() {
+        SshEchoLogger echoLogger = create(SshEchoLogPolicy.builder().headSize(5).tailSize(3).build());
+        String abbreviated = echoLogger.abbreviate(ECHO);
+        Assertions.assertTrue(abbreviated.startsWith("01234\n"));
+        Assertions.assertTrue(abbreviated.endsWith("\n789"));
+        Assertions.assertTrue(abbreviated.contains("total 100 chars, omit 92"));
+        Assertions.assertEquals("short", echoLogger.abbreviate("short"));
+    }
+
+    @Test
+    @DisplayName("关闭时不打印，完整模式下不截断")
+    void should_not_log_when_off_and_not_truncate_when_full() {
+        Assertions.assertFalse(create(SshEchoLogPolicy.OFF).isEnabled());
+        Assertions.assertEquals(ECHO, create(SshEchoLogPolicy.FULL).abbreviate(ECHO));
+    }
+
+    private static SshEchoLogger create(SshEchoLogPolicy policy) {
+        return new SshEchoLogger(LoggerFactory.getLogger(SshEchoLoggerTest.class), policy);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.service;
+
+import com.tang.ssh.domain.entity.SshJumpParam;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 主机可达性探测测试
+ */
+class SshHostProbeTest {
+    private static final String HOST = "127.0.0.1";
+
+    @Test
+    @DisplayName("端口监听时可达，探测结果在有效期内被缓存，清除后重新探测")
+    void should_use_cached_result_when_probe_in_ttl() throws IOException {
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+            Assertions.assertTrue(SshHostProbe.isReachable(HOST, port, 1));
+        }
+        Assertions.assertTrue(SshHostProbe.isReachable(HOST, port, 1));
+        SshHostProbe.invalidate(HOST, port);
+        Assertions.assertFalse(SshHostProbe.isReachable(HOST, port, 1));
+    }
+
+    @Test
+    @DisplayName("批量探测时，返回每台主机的探测结果")
+    void should_return_every_host_when_probe_all() throws IOException {
+        try (ServerSocket first = new ServerSocket(0); ServerSocket second = new ServerSocket(0)) {
+            int closedPort;
+            try (ServerSocket closed = new ServerSocket(0)) {
+                closedPort = closed.getLocalPort();
+            }
+            List<SshJumpParam> params = List.of(
+                SshJumpParam.builder().host(HOST).port(first.getLocalPort()).build(),
+                SshJumpParam.builder().host(HOST).port(second.getLocalPort()).build(),
+                SshJumpParam.builder().host(HOST).port(closedPort).build());
+            Map<String, Boolean> results = SshHostProbe.probeAll(params, 1);
+            Assertions.assertEquals(3, results.size());
+            Assertions.assertTrue(results.get(HOST + ":" + first.getLocalPort()));
+            Assertions.assertTrue(results.get(HOST + ":" + second.getLocalPort()));
+            Assertions.assertFalse(results.get(HOST + ":" + closedPort));
+        }
+    }
+
+    @Test
+    @DisplayName("主机为空或者端口越界时，探测结果为不可达，不会一直阻塞")
+    void should_return_unreachable_when_param_illegal() {
+        Assertions.assertFalse(SshHostProbe.isReachable(null, 22, 1));
+        Assertions.assertFalse(SshHostProbe.isReachable(HOST, 70000, 1));
+        Assertions.assertFalse(SshHostProbe.isReachable(HOST, 70000, 1));
+    }
+}
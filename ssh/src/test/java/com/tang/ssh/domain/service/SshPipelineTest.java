@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) TangAn Technologies Co., Ltd. 2023-2023. All rights reserved.
+ */
+
+package com.tang.ssh.domain.service;
+
+import com.tang.ssh.domain.entity.SshExecResult;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+/**
+ * 流水线回显拆分测试
+ */
+class SshPipelineTest {
+    @Test
+    @DisplayName("回显逐个字符到达、标记被拆开时，仍按标记拆分出每条命令的输出与退出码")
+    void should_split_by_marker_when_echo_arrive_char_by_char() {
+        SshPipeline pipeline = new SshPipeline(List.of("pwd", "false"));
+        String[] lines = pipeline.getScript().split("\n");
+        StringBuilder echo = new StringBuilder("$ ");
+        appendCommand(echo, lines[0], lines[1], "/home/test", lines[2], 0);
+        appendCommand(echo, lines[3], lines[4], "", lines[5], 1);
+        for (int i = 0; i < echo.length(); i++) {
+            pipeline.append(String.valueOf(echo.charAt(i)));
+        }
+        pipeline.publish();
+        Assertions.assertTrue(pipeline.isDone());
+        SshExecResult pwd = pipeline.getFutures().get(0).join();
+        Assertions.assertEquals(0, pwd.getExitCode());
+        Assertions.assertEquals("/home/test", pwd.getStdout());
+        Assertions.assertEquals(1, pipeline.getFutures().get(1).join().getExitCode());
+    }
+
+    /**
+     * 模拟终端回显: 标记命令本身、shell去掉引号后输出的标记、命令与其输出, 每条之后是提示符
+     */
+    private static void appendCommand(StringBuilder echo, String beginCommand, String command, String output,
+        String endCommand, int exitCode) {
+        echo.append(beginCommand).append("\r\n").append(unquote(beginCommand)).append("\r\n$ ");
+        echo.append(command).append("\r\n");
+        if (!output.isEmpty()) {
+            echo.append(output).append("\r\n");
+        }
+        echo.append("$ ").append(endCommand).append("\r\n")
+            .append(unquote(endCommand).replace("$?", String.valueOf(exitCode))).append("\r\n$ ");
+    }
+
+    private static String unquote(String markerCommand) {
+        return markerCommand.substring("echo ".length()).replace("\"", "");
+    }
+}
@@ -26,6 +26,11 @@ public abstract class CommandExecutionHelper extends AbstractCommandSupport {
      */
     public static Map<String, String> commandToResult = new HashMap<>();
 
+    /**
+     * 上一条命令的退出码，用于模拟$?
+     */
+    private int lastExitCode = 0;
+
     protected CommandExecutionHelper() {
         this(null);
     }
@@ -53,7 +58,7 @@ public abstract class CommandExecutionHelper extends AbstractCommandSupport {
                     }
                 }
             } else {
-                handleCommandLine(command);
+                handleExecCommand(command);
             }
         } catch (InterruptedIOException e) {
             // Ignore - signaled end
@@ -77,6 +82,10 @@ public abstract class CommandExecutionHelper extends AbstractCommandSupport {
     @Override
     public void start(ChannelSession channel, Environment env) throws IOException {
         super.start(channel, env);
+        if (getCommand() != null) {
+            // exec通道没有登录信息
+            return;
+        }
         // 写入登录之后的信息
         OutputStream out = getOutputStream();
         out.write("Last login: %s from 127.0.0.1\n$".formatted(
@@ -95,6 +104,7 @@ public abstract class CommandExecutionHelper extends AbstractCommandSupport {
         String resp;
         if (commandToResult.containsKey(command)) {
             resp = "%s\n%s\n$".formatted(command, commandToResult.get(command));
+            lastExitCode = 0;
         } else {
             resp = handleDefaultCommand(command);
         }
@@ -103,17 +113,49 @@ public abstract class CommandExecutionHelper extends AbstractCommandSupport {
         return true;
     }
 
+    /**
+     * exec通道的命令, 只输出结果, 不回显命令本身与提示符
+     *
+     * @param command 命令
+     * @throws IOException 写入失败
+     */
+    protected void handleExecCommand(String command) throws IOException {
+        if (commandToResult.containsKey(command) || "pwd".equals(command)) {
+            OutputStream stdout = getOutputStream();
+            stdout.write((commandToResult.getOrDefault(command, "/home/test") + "\n").getBytes(StandardCharsets.UTF_8));
+            stdout.flush();
+            return;
+        }
+        OutputStream stderr = getErrorStream();
+        stderr.write("%s: command not found\n".formatted(command).getBytes(StandardCharsets.UTF_8));
+        stderr.flush();
+        onExit(127);
+    }
+
     private String handleDefaultCommand(String command) {
         String resp;
-        if ("pwd".equals(command)) {
+        int exitCode = 0;
+        if (command.startsWith("echo ")) {
+            // 模拟shell去掉引号并替换$?
+            String text = command.substring("echo ".length()).replace("\"", "")
+                .replace("$?", String.valueOf(lastExitCode));
+            resp = "%s\n%s\n$".formatted(command, text);
+        } else if ("false".equals(command)) {
+            resp = "%s\n$".formatted(command);
+            exitCode = 1;
+        } else if ("pwd".equals(command)) {
             resp = "%s\n%s\n$".formatted(command, "/home/test");
         } else if (command.startsWith("top")) {
             resp = "%s\n%s\n$".formatted(command, "%CPU");
+        } else if (command.startsWith("sleep")) {
+            // 模拟长时间运行的命令, 不输出提示符
+            resp = "%s\n".formatted(command);
         } else if (command.startsWith("ping")) {
             resp = "%s\n%s\n$".formatted(command, "bytes from");
         } else {
             resp = "%s\n$".formatted(command);
         }
+        lastExitCode = exitCode;
         return resp;
     }
 }
\ No newline at end of file
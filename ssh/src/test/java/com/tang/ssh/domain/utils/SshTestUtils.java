@@ -13,7 +13,6 @@ import org.apache.sshd.core.CoreModuleProperties;
 import org.apache.sshd.server.SshServer;
 import org.apache.sshd.server.auth.pubkey.AcceptAllPublickeyAuthenticator;
 import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
-import org.apache.sshd.server.shell.UnknownCommandFactory;
 import org.apache.sshd.sftp.server.SftpSubsystemFactory;
 
 import java.io.File;
@@ -72,7 +71,8 @@ public class SshTestUtils {
         sshd.setPasswordAuthenticator((user, passwd, session) -> username.equals(user) && password.equals(passwd));
         sshd.setPublickeyAuthenticator(AcceptAllPublickeyAuthenticator.INSTANCE);
         // sshd.setShellFactory(EchoShellFactory.INSTANCE);
-        sshd.setCommandFactory(UnknownCommandFactory.INSTANCE);
+        sshd.setCommandFactory((channel, command) -> new CommandExecutionHelper(command) {
+        });
         CoreModuleProperties.NIO2_READ_TIMEOUT.set(sshd, Duration.ofSeconds(60));
         sshd.start();
         sshd.setShellFactory((session) -> SshTestUtils.createShellFactory());
@@ -89,7 +89,7 @@ public class SshTestUtils {
     public static SshServer createWithSftpServer(int i) throws IOException {
         SshServer sshd = createSshServer(i);
         sshd.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
-        sshd.setFileSystemFactory(new VirtualFileSystemFactory(new File("target").toPath()));
+        sshd.setFileSystemFactory(new VirtualFileSystemFactory(new File("target").getAbsoluteFile().toPath()));
         return sshd;
     }
 
@@ -3,14 +3,15 @@ package com.tang.task.adapter;
 import com.tang.base.response.Response;
 import com.tang.task.application.TaskService;
 import com.tang.task.domain.entity.Task;
+import com.tang.task.domain.entity.TaskPage;
+import com.tang.task.domain.entity.TaskQuery;
 import lombok.AllArgsConstructor;
 import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.util.List;
-
 /**
  * 任务相关的接口
  *
@@ -24,13 +25,24 @@ public class TaskController {
     private TaskService taskService;
 
     /**
-     * 查询任务
+     * 分页查询任务, 按任务id从新到旧排序, 使用返回的nextId作为afterId查询下一页, 直到nextId为空
      *
-     * @param task 查询参数，当参数为空时，查询所有结果
-     * @return 结果
+     * @param query 查询参数, 通过请求参数传递, 都为空时查询所有任务的第一页
+     * @return 本页的任务
      */
     @GetMapping
-    public Response<List<Task>> queryTask(@RequestBody Task task) {
-        return Response.success(taskService.queryTask(task));
+    public Response<TaskPage> queryTask(TaskQuery query) {
+        return Response.success(taskService.queryTaskPage(query));
+    }
+
+    /**
+     * 取消任务, 等待中的任务不再启动, 运行中的任务被中断
+     *
+     * @param id 任务id
+     * @return 被取消的任务
+     */
+    @PostMapping("{id}/cancel")
+    public Response<Task> cancelTask(@PathVariable("id") int id) {
+        return Response.success(taskService.cancelTask(id));
     }
 }
\ No newline at end of file
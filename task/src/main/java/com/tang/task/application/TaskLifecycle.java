@@ -0,0 +1,246 @@
+package com.tang.task.application;
+
+import com.tang.task.domain.entity.Task;
+import com.tang.task.domain.entity.TaskStatus;
+import com.tang.task.domain.mapper.TaskMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 任务生命周期
+ * <p>
+ * 记录任务的状态、进度与结果，状态变化为CREATE -> WAIT -> RUNNING -> SUCCESS/FAIL/ABORT
+ * <p>
+ * 变化不会立即写入数据库，而是标记为待写入，后台定期合并成一条批量更新语句写入，
+ * 同一任务在两次写入之间的多次变化只写入最新的值，待写入的任务较多时提前写入
+ *
+ * @author he
+ * @since 2024-01.07-20:30
+ */
+@Slf4j
+@Component
+public class TaskLifecycle {
+    private static final Set<TaskStatus> FINISHED = EnumSet.of(TaskStatus.SUCCESS, TaskStatus.FAIL, TaskStatus.ABORT);
+
+    /**
+     * 任务结果的最大长度, 与数据库中result列的长度一致
+     */
+    private static final int MAX_RESULT_LENGTH = 255;
+
+    /**
+     * 单个任务连续写入失败的最大次数, 超过后丢弃该任务的变化, 避免一条坏数据阻塞所有任务的写入
+     */
+    private static final int MAX_WRITE_RETRIES = 3;
+
+    private final TaskMapper taskMapper;
+
+    private final int batchSize;
+
+    /**
+     * 还没有结束的任务, key为任务id
+     */
+    private final Map<Integer, Task> activeTasks = new ConcurrentHashMap<>();
+
+    /**
+     * 等待写入数据库的任务, key为任务id, 写入时读取任务的最新值
+     */
+    private final Map<Integer, Task> dirtyTasks = new ConcurrentHashMap<>();
+
+    /**
+     * 单独写入失败的次数, key为任务id, 只在{@link TaskLifecycle#flush()}中访问
+     */
+    private final Map<Integer, Integer> writeFailures = new HashMap<>();
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("task-lifecycle-flusher").daemon().factory());
+
+    /**
+     * 是否已经提交了一次还没有开始的提前写入, 避免待写入的任务较多时每次变化都提交一次写入
+     */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /**
+     * 创建任务生命周期
+     *
+     * @param taskMapper          任务数据库映射
+     * @param flushIntervalMillis 定期写入数据库的间隔毫秒数
+     * @param batchSize           待写入的任务达到该数量时提前写入, 也是单条更新语句的最大任务数
+     */
+    @Autowired
+    public TaskLifecycle(TaskMapper taskMapper,
+        @Value("${tang.task.flush-interval-millis:1000}") long flushIntervalMillis,
+        @Value("${tang.task.flush-batch-size:500}") int batchSize) {
+        this.taskMapper = taskMapper;
+        this.batchSize = Math.max(batchSize, 1);
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 任务已写入数据库, 开始跟踪任务的生命周期, 并把任务id设置给任务操作
+     *
+     * @param task 已经生成任务id的任务
+     */
+    public void register(Task task) {
+        activeTasks.put(task.getId(), task);
+        if (task.getTaskOperate() != null) {
+            task.getTaskOperate().setTaskId(String.valueOf(task.getId()));
+        }
+    }
+
+    /**
+     * 修改任务状态, 已结束的任务不再修改
+     *
+     * @param task   任务
+     * @param status 新的状态
+     * @return false表示任务已结束, 没有修改
+     */
+    public boolean transit(Task task, TaskStatus status) {
+        synchronized (task) {
+            if (FINISHED.contains(task.getStatus())) {
+                return false;
+            }
+            task.setStatus(status);
+            if (FINISHED.contains(status)) {
+                activeTasks.remove(task.getId(), task);
+            }
+        }
+        markDirty(task);
+        return true;
+    }
+
+    /**
+     * 更新任务进度
+     *
+     * @param taskId   任务id
+     * @param progress 进度, 0到100
+     */
+    public void updateProgress(int taskId, int progress) {
+        Task task = activeTasks.get(taskId);
+        if (task == null) {
+            log.warn("task {} is not active, ignore progress {}.", taskId, progress);
+            return;
+        }
+        synchronized (task) {
+            task.setProgress(Math.min(Math.max(progress, 0), 100));
+        }
+        markDirty(task);
+    }
+
+    /**
+     * 更新任务结果, 超过{@link TaskLifecycle#MAX_RESULT_LENGTH}个字符的部分被截断
+     *
+     * @param taskId 任务id
+     * @param result 任务结果
+     */
+    public void updateResult(int taskId, String result) {
+        Task task = activeTasks.get(taskId);
+        if (task == null) {
+            log.warn("task {} is not active, ignore result.", taskId);
+            return;
+        }
+        if (result != null && result.length() > MAX_RESULT_LENGTH) {
+            log.warn("result of task {} is too long({}), truncate it.", taskId, result.length());
+            result = result.substring(0, MAX_RESULT_LENGTH);
+        }
+        synchronized (task) {
+            task.setResult(result);
+        }
+        markDirty(task);
+    }
+
+    /**
+     * 获取还没有结束的任务
+     *
+     * @param taskId 任务id
+     * @return 任务已结束或者不存在时返回null
+     */
+    public Task getActiveTask(int taskId) {
+        return activeTasks.get(taskId);
+    }
+
+    private void markDirty(Task task) {
+        dirtyTasks.put(task.getId(), task);
+        if (dirtyTasks.size() >= batchSize && !flusher.isShutdown() && flushScheduled.compareAndSet(false, true)) {
+            flusher.execute(this::flush);
+        }
+    }
+
+    /**
+     * 把待写入的任务批量写入数据库
+     */
+    public synchronized void flush() {
+        // 开始写入后的新变化需要重新提交写入
+        flushScheduled.set(false);
+        List<Task> batch = new ArrayList<>();
+        for (Integer taskId : dirtyTasks.keySet()) {
+            Task task = dirtyTasks.remove(taskId);
+            if (task == null) {
+                continue;
+            }
+            synchronized (task) {
+                // 写入的是快照, 写入期间的新变化会重新标记为待写入
+                batch.add(Task.builder().id(task.getId()).status(task.getStatus()).progress(task.getProgress())
+                    .result(task.getResult()).build());
+            }
+            if (batch.size() >= batchSize) {
+                write(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            write(batch);
+        }
+    }
+
+    private void write(List<Task> batch) {
+        try {
+            taskMapper.updateTasks(batch);
+            log.debug("flush {} tasks.", batch.size());
+            batch.forEach(snapshot -> writeFailures.remove(snapshot.getId()));
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                retryLater(batch.get(0), e);
+                return;
+            }
+            // 批量写入失败时逐个写入, 找出写不进去的任务, 其他任务正常写入
+            log.error("flush {} tasks error, write them one by one.", batch.size(), e);
+            batch.forEach(snapshot -> write(List.of(snapshot)));
+        }
+    }
+
+    private void retryLater(Task snapshot, RuntimeException e) {
+        int failures = writeFailures.merge(snapshot.getId(), 1, Integer::sum);
+        if (failures >= MAX_WRITE_RETRIES) {
+            log.error("flush task {} error {} times, drop the change.", snapshot.getId(), failures, e);
+            writeFailures.remove(snapshot.getId());
+            return;
+        }
+        log.error("flush task {} error, will retry later.", snapshot.getId(), e);
+        Task task = activeTasks.get(snapshot.getId());
+        dirtyTasks.putIfAbsent(snapshot.getId(), task == null ? snapshot : task);
+    }
+
+    /**
+     * 停止后台写入并写入剩余的变化
+     */
+    @PreDestroy
+    public void close() {
+        flusher.shutdown();
+        flush();
+    }
+}
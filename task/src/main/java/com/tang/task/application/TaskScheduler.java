@@ -0,0 +1,272 @@
+package com.tang.task.application;
+
+import com.tang.base.context.Module;
+import com.tang.task.domain.entity.ITaskOperate;
+import com.tang.task.domain.entity.Task;
+import com.tang.task.domain.entity.TaskPriority;
+import com.tang.task.domain.entity.TaskStatus;
+import com.tang.task.domain.exception.TaskErrorCode;
+import com.tang.task.domain.exception.TaskException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 任务调度器
+ * <p>
+ * 提交的任务先进入等待队列，状态为{@link TaskStatus#WAIT}，同时运行的任务数不超过全局上限与所属模块的上限，
+ * 有任务结束时按优先级从高到低启动等待中的任务，同一优先级按提交顺序启动
+ * <p>
+ * 某个模块达到上限时只阻塞该模块的任务，其他模块的任务仍然可以启动
+ *
+ * @author he
+ * @since 2024-01.06-21:10
+ */
+@Slf4j
+@Component
+public class TaskScheduler {
+    private static final Comparator<Waiting> ORDER = Comparator.comparing(Waiting::task,
+        Comparator.comparing(Task::getPriority)).thenComparingLong(Waiting::sequence);
+
+    private final TaskLifecycle taskLifecycle;
+
+    private final int maxRunning;
+
+    private final int maxWaiting;
+
+    private final Map<Module, Integer> moduleMaxRunning = new EnumMap<>(Module.class);
+
+    private final Map<Module, Queue<Waiting>> waitings = new EnumMap<>(Module.class);
+
+    private final Map<Module, Integer> moduleRunning = new EnumMap<>(Module.class);
+
+    /**
+     * 正在运行任务的线程, key为任务id, 取消任务时中断
+     */
+    private final Map<Integer, Thread> runningThreads = new ConcurrentHashMap<>();
+
+    private int running = 0;
+
+    private int waiting = 0;
+
+    private long sequence = 0;
+
+    /**
+     * 创建调度器
+     *
+     * @param taskLifecycle  任务生命周期, 记录任务状态的变化
+     * @param maxRunning     同时运行的任务总数上限
+     * @param maxWaiting     等待中的任务总数上限, 超过时拒绝提交
+     * @param sshMaxRunning  ssh模块同时运行的任务数上限
+     * @param taskMaxRunning task模块同时运行的任务数上限
+     * @param baseMaxRunning base模块同时运行的任务数上限
+     *                       <p>
+     *                       没有单独配置上限的模块只受全局上限限制
+     */
+    @Autowired
+    public TaskScheduler(TaskLifecycle taskLifecycle, @Value("${tang.task.max-running:64}") int maxRunning,
+        @Value("${tang.task.max-waiting:10000}") int maxWaiting,
+        @Value("${tang.task.ssh-max-running:32}") int sshMaxRunning,
+        @Value("${tang.task.task-max-running:16}") int taskMaxRunning,
+        @Value("${tang.task.base-max-running:16}") int baseMaxRunning) {
+        this.taskLifecycle = taskLifecycle;
+        this.maxRunning = Math.max(maxRunning, 1);
+        this.maxWaiting = maxWaiting;
+        for (Module module : Module.values()) {
+            moduleMaxRunning.put(module, this.maxRunning);
+        }
+        moduleMaxRunning.put(Module.SSH, Math.max(sshMaxRunning, 1));
+        moduleMaxRunning.put(Module.TASK, Math.max(taskMaxRunning, 1));
+        moduleMaxRunning.put(Module.BASE, Math.max(baseMaxRunning, 1));
+        for (Module module : Module.values()) {
+            waitings.put(module, new PriorityQueue<>(ORDER));
+            moduleRunning.put(module, 0);
+        }
+    }
+
+    /**
+     * 提交任务, 有空闲名额时立即启动, 否则进入等待队列
+     *
+     * @param task 任务, 必须包含所属模块与需要运行的操作
+     * @throws TaskException 等待中的任务过多
+     */
+    public void submit(Task task) {
+        submitAll(List.of(task));
+    }
+
+    /**
+     * 一次提交多个任务, 等待队列放不下所有任务时全部拒绝
+     *
+     * @param tasks 任务, 必须包含所属模块与需要运行的操作
+     * @throws TaskException 等待中的任务过多
+     */
+    public void submitAll(Collection<Task> tasks) {
+        synchronized (this) {
+            checkCapacity(tasks.size());
+            for (Task task : tasks) {
+                if (task.getPriority() == null) {
+                    task.setPriority(TaskPriority.NORMAL);
+                }
+                taskLifecycle.transit(task, TaskStatus.WAIT);
+                waitings.get(task.getModule()).offer(new Waiting(task, sequence++));
+            }
+            waiting += tasks.size();
+        }
+        dispatch();
+    }
+
+    /**
+     * 检查等待队列能否放下指定数量的任务, 用于写入数据库之前提前拒绝, 提交时仍会再次检查
+     *
+     * @param count 任务数
+     * @throws TaskException 等待中的任务过多
+     */
+    public synchronized void checkCapacity(int count) {
+        if (waiting + count > maxWaiting) {
+            log.error("too many waiting tasks, reject {} tasks.", count);
+            throw new TaskException(TaskErrorCode.QUEUE_FULL);
+        }
+    }
+
+    /**
+     * 取消任务, 等待中的任务直接移出队列, 运行中的任务先调用{@link ITaskOperate#cancel()}再中断线程,
+     * 任务状态变为{@link TaskStatus#ABORT}
+     *
+     * @param task 任务
+     * @return false表示任务已经结束, 无法取消
+     */
+    public boolean cancel(Task task) {
+        if (!taskLifecycle.transit(task, TaskStatus.ABORT)) {
+            return false;
+        }
+        synchronized (this) {
+            if (waitings.get(task.getModule()).removeIf(next -> next.task() == task)) {
+                waiting--;
+                log.info("cancel waiting task {}.", task.getId());
+                return true;
+            }
+        }
+        // 线程还没有登记时, 任务启动后会检查到已取消的状态而直接结束
+        Thread thread = runningThreads.get(task.getId());
+        if (thread != null) {
+            log.info("cancel running task {}.", task.getId());
+            try {
+                task.getTaskOperate().cancel();
+            } catch (RuntimeException e) {
+                log.error("cancel task {} error.", task.getId(), e);
+            }
+            thread.interrupt();
+        }
+        return true;
+    }
+
+    /**
+     * 正在运行的任务数
+     *
+     * @return 任务数
+     */
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    /**
+     * 等待中的任务数
+     *
+     * @return 任务数
+     */
+    public synchronized int getWaitingCount() {
+        return waiting;
+    }
+
+    private void dispatch() {
+        Task task;
+        while ((task = poll()) != null) {
+            Task started = task;
+            Thread.ofVirtual().name("task-" + task.getId()).start(() -> run(started));
+        }
+    }
+
+    /**
+     * 取出下一个可以启动的任务并占用名额, 等待期间已结束的任务直接丢弃
+     *
+     * @return 没有可以启动的任务时返回null
+     */
+    private synchronized Task poll() {
+        while (running < maxRunning) {
+            Waiting next = null;
+            for (Module module : Module.values()) {
+                Waiting head = waitings.get(module).peek();
+                if (head == null || moduleRunning.get(module) >= moduleMaxRunning.get(module)) {
+                    continue;
+                }
+                if (next == null || ORDER.compare(head, next) < 0) {
+                    next = head;
+                }
+            }
+            if (next == null) {
+                return null;
+            }
+            Task task = next.task();
+            waitings.get(task.getModule()).poll();
+            waiting--;
+            if (taskLifecycle.transit(task, TaskStatus.RUNNING)) {
+                running++;
+                moduleRunning.merge(task.getModule(), 1, Integer::sum);
+                return task;
+            }
+            log.info("task {} finished while waiting, skip it.", task.getId());
+        }
+        return null;
+    }
+
+    private void run(Task task) {
+        runningThreads.put(task.getId(), Thread.currentThread());
+        try {
+            boolean canceled;
+            synchronized (task) {
+                canceled = task.getStatus() == TaskStatus.ABORT;
+            }
+            if (canceled) {
+                log.info("task {} is canceled before running.", task.getId());
+                return;
+            }
+            log.info("task {} start running.", task.getId());
+            task.getTaskOperate().run();
+            taskLifecycle.transit(task, TaskStatus.SUCCESS);
+        } catch (RuntimeException e) {
+            log.error("task {} run error.", task.getId(), e);
+            taskLifecycle.transit(task, TaskStatus.FAIL);
+        } finally {
+            // Error等未捕获的异常不会经过上面的分支, 没有结束的任务在这里标记为失败
+            if (taskLifecycle.transit(task, TaskStatus.FAIL)) {
+                log.error("task {} exit abnormally, mark it as failed.", task.getId());
+            }
+            runningThreads.remove(task.getId());
+            synchronized (this) {
+                running--;
+                moduleRunning.merge(task.getModule(), -1, Integer::sum);
+            }
+            log.info("task {} finish.", task.getId());
+            dispatch();
+        }
+    }
+
+    /**
+     * 等待中的任务
+     *
+     * @param task     任务
+     * @param sequence 提交顺序
+     */
+    private record Waiting(Task task, long sequence) {
+    }
+}
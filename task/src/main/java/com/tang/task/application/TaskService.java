@@ -1,6 +1,9 @@
 package com.tang.task.application;
 
+import com.tang.task.domain.entity.ITaskOperate;
 import com.tang.task.domain.entity.Task;
+import com.tang.task.domain.entity.TaskPage;
+import com.tang.task.domain.entity.TaskQuery;
 import com.tang.task.domain.entity.TaskStatus;
 import com.tang.task.domain.exception.TaskErrorCode;
 import com.tang.task.domain.exception.TaskException;
@@ -9,6 +12,9 @@ import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.List;
 
@@ -22,23 +28,88 @@ import java.util.List;
 @Service
 @AllArgsConstructor
 public class TaskService {
+    /**
+     * 批量创建任务时单条插入语句的最大任务数
+     */
+    private static final int INSERT_BATCH_SIZE = 500;
+
+    /**
+     * 分页查询时每页的最大任务数
+     */
+    private static final int MAX_PAGE_SIZE = 500;
+
     private TaskMapper taskMapper;
 
+    private TaskScheduler taskScheduler;
+
+    private TaskLifecycle taskLifecycle;
+
     /**
-     * 创建并使用虚拟线程启动任务
+     * 创建任务并提交给调度器, 同时运行的任务数达到上限时任务进入等待状态, 见{@link TaskScheduler}
      *
      * @param task 任务参数
      * @return 任务，包含数据库生成的任务id
      */
     public Task createAndStartTask(Task task) {
         checkTask(task);
+        taskScheduler.checkCapacity(1);
         task.setStatus(TaskStatus.CREATE);
         taskMapper.addTask(task);
-        Thread.startVirtualThread(task.getTaskOperate());
-        log.info("start task {} success.", task.getId());
+        submit(List.of(task));
+        log.info("submit task {} success.", task.getId());
         return task;
     }
 
+    /**
+     * 批量创建任务并一次性提交给调度器, 每{@link TaskService#INSERT_BATCH_SIZE}个任务使用一条插入语句
+     * <p>
+     * 等待队列放不下时在写入数据库之前拒绝, 所有插入语句在同一个事务中, 提交失败时不会留下部分任务;
+     * 事务提交后才把任务提交给调度器, 任务运行时数据库中一定已有对应的记录
+     *
+     * @param tasks 任务参数
+     * @return 任务，包含数据库生成的任务id
+     * @throws TaskException 任务参数错误或者等待中的任务过多
+     */
+    @Transactional
+    public List<Task> createAndStartTasks(List<Task> tasks) {
+        if (tasks == null || tasks.isEmpty()) {
+            throw new TaskException(TaskErrorCode.CREATE_ERROR);
+        }
+        tasks.forEach(TaskService::checkTask);
+        taskScheduler.checkCapacity(tasks.size());
+        tasks.forEach(task -> task.setStatus(TaskStatus.CREATE));
+        for (int start = 0; start < tasks.size(); start += INSERT_BATCH_SIZE) {
+            taskMapper.addTasks(tasks.subList(start, Math.min(start + INSERT_BATCH_SIZE, tasks.size())));
+        }
+        submitAfterCommit(tasks);
+        return tasks;
+    }
+
+    private void submitAfterCommit(List<Task> tasks) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            submit(tasks);
+            log.info("submit {} tasks success.", tasks.size());
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                submit(tasks);
+                log.info("submit {} tasks success.", tasks.size());
+            }
+        });
+    }
+
+    private void submit(List<Task> tasks) {
+        tasks.forEach(taskLifecycle::register);
+        try {
+            taskScheduler.submitAll(tasks);
+        } catch (TaskException e) {
+            tasks.forEach(task -> taskLifecycle.transit(task, TaskStatus.FAIL));
+            throw e;
+        }
+    }
+
     private static void checkTask(Task task) {
         if (task == null) {
             throw new TaskException(TaskErrorCode.CREATE_ERROR);
@@ -51,6 +122,42 @@ public class TaskService {
         }
     }
 
+    /**
+     * 更新任务进度, 供任务操作在运行中调用, 批量延迟写入数据库
+     *
+     * @param taskId   任务id, 即{@link ITaskOperate#setTaskId(String)}设置的id
+     * @param progress 进度, 0到100
+     */
+    public void updateProgress(String taskId, int progress) {
+        taskLifecycle.updateProgress(Integer.parseInt(taskId), progress);
+    }
+
+    /**
+     * 更新任务结果, 供任务操作在运行中调用, 批量延迟写入数据库
+     *
+     * @param taskId 任务id, 即{@link ITaskOperate#setTaskId(String)}设置的id
+     * @param result 任务结果
+     */
+    public void updateResult(String taskId, String result) {
+        taskLifecycle.updateResult(Integer.parseInt(taskId), result);
+    }
+
+    /**
+     * 取消任务, 状态变为{@link TaskStatus#ABORT}
+     *
+     * @param taskId 任务id
+     * @return 被取消的任务
+     * @throws TaskException 任务不存在或者已经结束
+     */
+    public Task cancelTask(int taskId) {
+        Task task = taskLifecycle.getActiveTask(taskId);
+        if (task == null || !taskScheduler.cancel(task)) {
+            throw new TaskException(TaskErrorCode.NOT_ACTIVE);
+        }
+        log.info("cancel task {} success.", taskId);
+        return task;
+    }
+
     /**
      * 查询任务
      *
@@ -60,4 +167,23 @@ public class TaskService {
     public List<Task> queryTask(Task task) {
         return taskMapper.queryAllTask(task);
     }
-}
\ No newline at end of file
+
+    /**
+     * 分页查询任务, 按任务id从新到旧排序
+     * <p>
+     * 使用键集分页, 下一页从上一页最后一个任务的id之后开始查询, 翻页期间新增的任务不会导致重复或遗漏
+     *
+     * @param query 查询参数, 每页任务数超过{@link TaskService#MAX_PAGE_SIZE}时按最大值查询
+     * @return 本页的任务与查询下一页的位置
+     */
+    public TaskPage queryTaskPage(TaskQuery query) {
+        int size = Math.min(Math.max(query.getSize(), 1), MAX_PAGE_SIZE);
+        // 多查询一个任务, 判断是否还有下一页
+        List<Task> tasks = taskMapper.queryTaskPage(query, size + 1);
+        if (tasks.size() <= size) {
+            return new TaskPage(tasks, null);
+        }
+        List<Task> page = tasks.subList(0, size);
+        return new TaskPage(page, page.get(size - 1).getId());
+    }
+}
@@ -15,4 +15,13 @@ public interface ITaskOperate extends Runnable {
      * @param taskId 设置任务id
      */
     void setTaskId(String taskId);
-}
\ No newline at end of file
+
+    /**
+     * 取消任务
+     * <p>
+     * 任务被取消时，先调用该方法，再中断运行任务的线程，任务可以在这里释放占用的外部资源，
+     * 比如向正在执行的ssh命令发送Ctrl+C、关闭ssh通道，避免阻塞在不响应中断的操作上
+     */
+    default void cancel() {
+    }
+}
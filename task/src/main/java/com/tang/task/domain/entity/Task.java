@@ -39,6 +39,17 @@ public class Task {
      */
     private TaskStatus status;
 
+    /**
+     * 任务进度, 0到100
+     */
+    private int progress;
+
+    /**
+     * 任务优先级, 只影响等待中的任务的启动顺序
+     */
+    @Builder.Default
+    private TaskPriority priority = TaskPriority.NORMAL;
+
     /**
      * 任务结果
      * <p>
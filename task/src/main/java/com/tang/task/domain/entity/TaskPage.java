@@ -0,0 +1,26 @@
+package com.tang.task.domain.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 任务分页查询结果
+ *
+ * @author he
+ * @since 2024-01.08-21:20
+ */
+@Getter
+@AllArgsConstructor
+public class TaskPage {
+    /**
+     * 本页的任务, 按任务id从新到旧排序
+     */
+    private List<Task> tasks;
+
+    /**
+     * 查询下一页时使用的{@link TaskQuery#getAfterId()}, 为空表示已经是最后一页
+     */
+    private Integer nextId;
+}
@@ -0,0 +1,22 @@
+package com.tang.task.domain.entity;
+
+/**
+ * 任务优先级, 等待执行的任务按优先级从高到低启动, 同一优先级按提交顺序启动
+ *
+ * @author he
+ * @since 2024-01.06-21:10
+ */
+public enum TaskPriority {
+    /**
+     * 高优先级
+     */
+    HIGH,
+    /**
+     * 普通优先级
+     */
+    NORMAL,
+    /**
+     * 低优先级
+     */
+    LOW;
+}
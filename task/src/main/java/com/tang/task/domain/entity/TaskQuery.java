@@ -0,0 +1,42 @@
+package com.tang.task.domain.entity;
+
+import com.tang.base.context.Module;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * 任务分页查询参数
+ *
+ * @author he
+ * @since 2024-01.08-21:20
+ */
+@Setter
+@Getter
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class TaskQuery {
+    /**
+     * 任务所属模块, 为空时不过滤
+     */
+    private Module module;
+
+    /**
+     * 任务状态, 为空时不过滤
+     */
+    private TaskStatus status;
+
+    /**
+     * 上一页返回的{@link TaskPage#getNextId()}, 为空时查询第一页
+     */
+    private Integer afterId;
+
+    /**
+     * 每页的任务数
+     */
+    @Builder.Default
+    private int size = 100;
+}
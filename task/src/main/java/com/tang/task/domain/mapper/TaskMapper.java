@@ -1,7 +1,9 @@
 package com.tang.task.domain.mapper;
 
 import com.tang.task.domain.entity.Task;
+import com.tang.task.domain.entity.TaskQuery;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 
 import java.util.List;
 
@@ -20,6 +22,20 @@ public interface TaskMapper {
      */
     void addTask(Task task);
 
+    /**
+     * 批量添加任务, 一条插入语句写入所有任务, 生成的任务id按顺序回填到任务中
+     *
+     * @param tasks 任务
+     */
+    void addTasks(@Param("tasks") List<Task> tasks);
+
+    /**
+     * 批量更新任务的状态、进度与结果, 结果为空时保持原值
+     *
+     * @param tasks 需要更新的任务
+     */
+    void updateTasks(@Param("tasks") List<Task> tasks);
+
     /**
      * 查询所有任务
      *
@@ -27,4 +43,13 @@ public interface TaskMapper {
      * @return 所有任务
      */
     List<Task> queryAllTask(Task task);
-}
\ No newline at end of file
+
+    /**
+     * 按键集分页查询任务, 按任务id从新到旧排序, 通过id的范围定位下一页, 不使用offset, 翻页的代价与页码无关
+     *
+     * @param query 查询参数
+     * @param limit 最多返回的任务数
+     * @return 任务
+     */
+    List<Task> queryTaskPage(@Param("query") TaskQuery query, @Param("limit") int limit);
+}
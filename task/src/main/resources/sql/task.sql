@@ -5,10 +5,14 @@ CREATE TABLE `task`
     `name`        varchar(25)       DEFAULT '' COMMENT '任务名称',
     `module`      varchar(25)       DEFAULT NULL COMMENT '任务所属模块',
     `status`      varchar(10)       DEFAULT 'CREATE' COMMENT '任务状态',
+    `progress`    int      NOT NULL DEFAULT 0 COMMENT '任务进度',
     `result`      varchar(255)      DEFAULT NULL COMMENT  '任务结果相关的信息',
     `create_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
     `update_time` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '任务最后更新时间',
-    PRIMARY KEY (`id`)
+    PRIMARY KEY (`id`),
+    KEY `idx_status_id` (`status`, `id`),
+    KEY `idx_module_status_id` (`module`, `status`, `id`),
+    KEY `idx_module_id` (`module`, `id`)
 ) ENGINE = InnoDB
   AUTO_INCREMENT = 19
   DEFAULT CHARSET = utf8mb4
@@ -15,4 +15,22 @@ alter table task
 
 # 修改列
 alter table task
-    MODIFY COLUMN `create_time` datetime NOT NULL DEFAULT current_timestamp after `status`;
\ No newline at end of file
+    MODIFY COLUMN `create_time` datetime NOT NULL DEFAULT current_timestamp after `status`;
+
+# 添加进度列
+alter table task
+    ADD COLUMN `progress` int NOT NULL DEFAULT 0 COMMENT '任务进度' after `status`;
+
+# 添加模块与结果列
+alter table task
+    ADD COLUMN `module` varchar(25) DEFAULT NULL COMMENT '任务所属模块' after `name`,
+    ADD COLUMN `result` varchar(255) DEFAULT NULL COMMENT '任务结果相关的信息' after `progress`;
+
+# 添加分页查询使用的索引, 按状态或者模块与状态过滤后按id排序
+alter table task
+    ADD INDEX `idx_status_id` (`status`, `id`),
+    ADD INDEX `idx_module_status_id` (`module`, `status`, `id`);
+
+# 添加只按模块过滤的分页查询使用的索引
+alter table task
+    ADD INDEX `idx_module_id` (`module`, `id`);
@@ -1,5 +1,7 @@
 package com.tang.task.adapter;
 
+import com.tang.base.context.Module;
+import com.tang.task.domain.entity.Task;
 import com.tang.task.domain.mapper.TaskMapper;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -13,6 +15,8 @@ import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * 任务相关的接口测试
@@ -30,11 +34,26 @@ class TaskControllerTest {
     private TaskMapper taskMapper;
 
     @Test
-    @DisplayName("当查询参数为空，应该查询成功")
-    void should_return_size_more_than_zero_when_query_body_empty() throws Exception {
-        Mockito.when(taskMapper.queryAllTask(Mockito.any())).thenReturn(new ArrayList<>());
-        mockMvc.perform(MockMvcRequestBuilders.get("/task").header("content-type", "application/json").content("{}"))
+    @DisplayName("当查询参数为空，应该查询第一页成功")
+    void should_return_first_page_when_query_param_empty() throws Exception {
+        Mockito.when(taskMapper.queryTaskPage(Mockito.any(), Mockito.anyInt())).thenReturn(new ArrayList<>());
+        mockMvc.perform(MockMvcRequestBuilders.get("/task"))
             .andExpect(MockMvcResultMatchers.jsonPath("$.code").value(0))
-            .andExpect(MockMvcResultMatchers.jsonPath("$.data").isArray());
+            .andExpect(MockMvcResultMatchers.jsonPath("$.data.tasks").isArray())
+            .andExpect(MockMvcResultMatchers.jsonPath("$.data.nextId").doesNotExist());
+        Mockito.verify(taskMapper).queryTaskPage(Mockito.any(), Mockito.eq(101));
+    }
+
+    @Test
+    @DisplayName("还有下一页时，返回本页最后一个任务的id")
+    void should_return_next_id_when_has_next_page() throws Exception {
+        List<Task> tasks = IntStream.rangeClosed(1, 3).map(i -> 10 - i)
+            .mapToObj(id -> Task.builder().id(id).name("task").module(Module.SSH).build()).toList();
+        Mockito.when(taskMapper.queryTaskPage(Mockito.any(), Mockito.eq(3))).thenReturn(tasks);
+        mockMvc.perform(MockMvcRequestBuilders.get("/task").param("module", "SSH").param("size", "2")
+                .param("afterId", "10"))
+            .andExpect(MockMvcResultMatchers.jsonPath("$.code").value(0))
+            .andExpect(MockMvcResultMatchers.jsonPath("$.data.tasks.length()").value(2))
+            .andExpect(MockMvcResultMatchers.jsonPath("$.data.nextId").value(8));
     }
 }
\ No newline at end of file
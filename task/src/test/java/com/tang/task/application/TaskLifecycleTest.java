@@ -0,0 +1,155 @@
+package com.tang.task.application;
+
+import com.tang.base.context.Module;
+import com.tang.task.domain.entity.ITaskOperate;
+import com.tang.task.domain.entity.Task;
+import com.tang.task.domain.entity.TaskStatus;
+import com.tang.task.domain.mapper.TaskMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 任务生命周期测试
+ *
+ * @author he
+ * @since 2024-01.07-21:10
+ */
+class TaskLifecycleTest {
+    @Test
+    @DisplayName("多次更新同一任务的进度，只批量写入一次最新的值")
+    @SuppressWarnings("unchecked")
+    void should_write_latest_value_once_when_update_many_times() {
+        TaskMapper taskMapper = Mockito.mock(TaskMapper.class);
+        TaskLifecycle taskLifecycle = new TaskLifecycle(taskMapper, 60000, 500);
+        String[] taskId = new String[1];
+        Task first = createTask(1, id -> taskId[0] = id);
+        Task second = createTask(2, id -> {
+        });
+        taskLifecycle.register(first);
+        taskLifecycle.register(second);
+        Assertions.assertEquals("1", taskId[0]);
+        taskLifecycle.transit(first, TaskStatus.RUNNING);
+        for (int i = 0; i <= 100; i++) {
+            taskLifecycle.updateProgress(1, i);
+        }
+        taskLifecycle.updateResult(1, "done");
+        taskLifecycle.transit(first, TaskStatus.SUCCESS);
+        taskLifecycle.transit(second, TaskStatus.FAIL);
+        taskLifecycle.flush();
+
+        ArgumentCaptor<List<Task>> captor = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(taskMapper, Mockito.times(1)).updateTasks(captor.capture());
+        List<Task> tasks = captor.getValue();
+        Assertions.assertEquals(2, tasks.size());
+        Task written = tasks.stream().filter(task -> task.getId() == 1).findFirst().orElseThrow();
+        Assertions.assertEquals(TaskStatus.SUCCESS, written.getStatus());
+        Assertions.assertEquals(100, written.getProgress());
+        Assertions.assertEquals("done", written.getResult());
+        taskLifecycle.close();
+    }
+
+    @Test
+    @DisplayName("任务结束后，不再修改状态")
+    void should_not_change_status_when_task_finished() {
+        TaskLifecycle taskLifecycle = new TaskLifecycle(Mockito.mock(TaskMapper.class), 60000, 500);
+        Task task = createTask(1, id -> {
+        });
+        taskLifecycle.register(task);
+        Assertions.assertTrue(taskLifecycle.transit(task, TaskStatus.ABORT));
+        Assertions.assertFalse(taskLifecycle.transit(task, TaskStatus.RUNNING));
+        Assertions.assertEquals(TaskStatus.ABORT, task.getStatus());
+        Assertions.assertNull(taskLifecycle.getActiveTask(1));
+        taskLifecycle.close();
+    }
+
+    @Test
+    @DisplayName("写入期间待写入的任务持续达到上限时，只提交一次提前写入")
+    void should_schedule_one_flush_when_dirty_while_flushing() throws InterruptedException {
+        TaskMapper taskMapper = Mockito.mock(TaskMapper.class);
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch block = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            writing.countDown();
+            block.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(taskMapper).updateTasks(Mockito.anyList());
+        TaskLifecycle taskLifecycle = new TaskLifecycle(taskMapper, 60000, 1);
+        Task task = createTask(1, id -> {
+        });
+        taskLifecycle.register(task);
+        taskLifecycle.transit(task, TaskStatus.RUNNING);
+        Assertions.assertTrue(writing.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i <= 100; i++) {
+            taskLifecycle.updateProgress(1, i);
+        }
+        block.countDown();
+        taskLifecycle.close();
+        Mockito.verify(taskMapper, Mockito.times(2)).updateTasks(Mockito.anyList());
+    }
+
+    @Test
+    @DisplayName("批量写入失败时逐个写入，其他任务正常写入，一直写入失败的任务重试几次后丢弃")
+    @SuppressWarnings("unchecked")
+    void should_write_others_and_drop_bad_task_when_batch_write_fail() {
+        TaskMapper taskMapper = Mockito.mock(TaskMapper.class);
+        Mockito.doAnswer(invocation -> {
+            if (((List<Task>) invocation.getArgument(0)).stream().anyMatch(task -> task.getId() == 2)) {
+                throw new IllegalStateException("data too long");
+            }
+            return null;
+        }).when(taskMapper).updateTasks(Mockito.anyList());
+        TaskLifecycle taskLifecycle = new TaskLifecycle(taskMapper, 60000, 500);
+        Task good = createTask(1, id -> {
+        });
+        Task bad = createTask(2, id -> {
+        });
+        taskLifecycle.register(good);
+        taskLifecycle.register(bad);
+        taskLifecycle.transit(good, TaskStatus.RUNNING);
+        taskLifecycle.transit(bad, TaskStatus.RUNNING);
+        for (int i = 0; i < 5; i++) {
+            taskLifecycle.flush();
+        }
+
+        Mockito.verify(taskMapper, Mockito.times(1))
+            .updateTasks(Mockito.argThat(tasks -> tasks.size() == 1 && tasks.get(0).getId() == 1));
+        Mockito.verify(taskMapper, Mockito.times(3))
+            .updateTasks(Mockito.argThat(tasks -> tasks.size() == 1 && tasks.get(0).getId() == 2));
+        Mockito.verify(taskMapper, Mockito.times(5)).updateTasks(Mockito.anyList());
+        taskLifecycle.close();
+    }
+
+    @Test
+    @DisplayName("任务结果超过数据库列的长度时，截断后保存")
+    void should_truncate_result_when_too_long() {
+        TaskLifecycle taskLifecycle = new TaskLifecycle(Mockito.mock(TaskMapper.class), 60000, 500);
+        Task task = createTask(1, id -> {
+        });
+        taskLifecycle.register(task);
+        taskLifecycle.updateResult(1, "x".repeat(1000));
+        Assertions.assertEquals(255, task.getResult().length());
+        taskLifecycle.close();
+    }
+
+    private static Task createTask(int id, Consumer<String> taskIdConsumer) {
+        return Task.builder().id(id).name("task-" + id).module(Module.TASK).status(TaskStatus.CREATE)
+            .taskOperate(new ITaskOperate() {
+                @Override
+                public void setTaskId(String taskId) {
+                    taskIdConsumer.accept(taskId);
+                }
+
+                @Override
+                public void run() {
+                }
+            }).build();
+    }
+}
@@ -0,0 +1,165 @@
+package com.tang.task.application;
+
+import com.tang.base.context.Module;
+import com.tang.task.domain.entity.ITaskOperate;
+import com.tang.task.domain.entity.Task;
+import com.tang.task.domain.entity.TaskPriority;
+import com.tang.task.domain.entity.TaskStatus;
+import com.tang.task.domain.exception.TaskErrorCode;
+import com.tang.task.domain.exception.TaskException;
+import com.tang.task.domain.mapper.TaskMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 任务调度器测试
+ *
+ * @author he
+ * @since 2024-01.06-21:40
+ */
+class TaskSchedulerTest {
+    @Test
+    @DisplayName("模块达到运行上限时，任务进入等待状态，按优先级依次启动，其他模块不受影响")
+    void should_wait_and_start_by_priority_when_module_full() throws InterruptedException {
+        TaskScheduler scheduler = new TaskScheduler(createLifecycle(), 10, 100, 1, 1, 1);
+        CountDownLatch block = new CountDownLatch(1);
+        CountDownLatch allDone = new CountDownLatch(4);
+        List<String> order = new CopyOnWriteArrayList<>();
+        Task first = createTask(1, Module.SSH, TaskPriority.NORMAL, () -> {
+            await(block);
+            order.add("first");
+            allDone.countDown();
+        });
+        scheduler.submit(first);
+        Task low = createTask(2, Module.SSH, TaskPriority.LOW, () -> {
+            order.add("low");
+            allDone.countDown();
+        });
+        Task high = createTask(3, Module.SSH, TaskPriority.HIGH, () -> {
+            order.add("high");
+            allDone.countDown();
+        });
+        scheduler.submit(low);
+        scheduler.submit(high);
+        Assertions.assertEquals(TaskStatus.RUNNING, first.getStatus());
+        Assertions.assertEquals(TaskStatus.WAIT, low.getStatus());
+        Assertions.assertEquals(TaskStatus.WAIT, high.getStatus());
+        Assertions.assertEquals(2, scheduler.getWaitingCount());
+
+        CountDownLatch otherDone = new CountDownLatch(1);
+        scheduler.submit(createTask(4, Module.TASK, TaskPriority.NORMAL, () -> {
+            otherDone.countDown();
+            allDone.countDown();
+        }));
+        Assertions.assertTrue(otherDone.await(5, TimeUnit.SECONDS));
+
+        block.countDown();
+        Assertions.assertTrue(allDone.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(List.of("first", "high", "low"), order);
+    }
+
+    @Test
+    @DisplayName("等待中的任务超过上限时，拒绝提交")
+    void should_throw_queue_full_when_waiting_too_many() {
+        TaskScheduler scheduler = new TaskScheduler(createLifecycle(), 1, 1, 1, 1, 1);
+        CountDownLatch block = new CountDownLatch(1);
+        scheduler.submit(createTask(1, Module.SSH, TaskPriority.NORMAL, () -> await(block)));
+        scheduler.submit(createTask(2, Module.SSH, TaskPriority.NORMAL, () -> {
+        }));
+        TaskException exception = Assertions.assertThrows(TaskException.class,
+            () -> scheduler.submit(createTask(3, Module.SSH, TaskPriority.NORMAL, () -> {
+            })));
+        Assertions.assertEquals(TaskErrorCode.QUEUE_FULL, exception.getErrorCode());
+        block.countDown();
+    }
+
+    @Test
+    @DisplayName("取消运行中的任务时，先通知任务取消再中断线程，状态为ABORT；取消等待中的任务时移出队列")
+    void should_interrupt_and_abort_when_cancel_task() throws InterruptedException {
+        TaskScheduler scheduler = new TaskScheduler(createLifecycle(), 10, 100, 1, 1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch canceled = new CountDownLatch(1);
+        Task running = Task.builder().id(1).name("task-1").module(Module.SSH).taskOperate(new ITaskOperate() {
+            @Override
+            public void setTaskId(String taskId) {
+            }
+
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    TimeUnit.MINUTES.sleep(1);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+
+            @Override
+            public void cancel() {
+                canceled.countDown();
+            }
+        }).build();
+        scheduler.submit(running);
+        Task waiting = createTask(2, Module.SSH, TaskPriority.NORMAL, () -> {
+        });
+        scheduler.submit(waiting);
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Assertions.assertTrue(scheduler.cancel(waiting));
+        Assertions.assertEquals(0, scheduler.getWaitingCount());
+        Assertions.assertTrue(scheduler.cancel(running));
+        Assertions.assertTrue(canceled.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(TaskStatus.ABORT, running.getStatus());
+        Assertions.assertEquals(TaskStatus.ABORT, waiting.getStatus());
+        Assertions.assertFalse(scheduler.cancel(running));
+    }
+
+    @Test
+    @DisplayName("任务抛出Error时，状态为FAIL并释放名额")
+    void should_fail_and_release_slot_when_task_throw_error() throws InterruptedException {
+        TaskScheduler scheduler = new TaskScheduler(createLifecycle(), 10, 100, 1, 1, 1);
+        Task broken = createTask(1, Module.SSH, TaskPriority.NORMAL, () -> {
+            throw new AssertionError("broken task");
+        });
+        CountDownLatch nextDone = new CountDownLatch(1);
+        scheduler.submit(broken);
+        scheduler.submit(createTask(2, Module.SSH, TaskPriority.NORMAL, nextDone::countDown));
+        Assertions.assertTrue(nextDone.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(TaskStatus.FAIL, broken.getStatus());
+    }
+
+    private static TaskLifecycle createLifecycle() {
+        return new TaskLifecycle(Mockito.mock(TaskMapper.class), 1000, 500);
+    }
+
+    private static Task createTask(int id, Module module, TaskPriority priority, Runnable runnable) {
+        return Task.builder().id(id).name("task-" + id).module(module).priority(priority)
+            .taskOperate(new ITaskOperate() {
+                @Override
+                public void setTaskId(String taskId) {
+                }
+
+                @Override
+                public void run() {
+                    runnable.run();
+                }
+            }).build();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
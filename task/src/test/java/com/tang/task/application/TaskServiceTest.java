@@ -3,6 +3,7 @@ package com.tang.task.application;
 import com.tang.base.context.Module;
 import com.tang.task.domain.entity.ITaskOperate;
 import com.tang.task.domain.entity.Task;
+import com.tang.task.domain.entity.TaskStatus;
 import com.tang.task.domain.exception.TaskErrorCode;
 import com.tang.task.domain.exception.TaskException;
 import com.tang.task.domain.mapper.TaskMapper;
@@ -12,7 +13,19 @@ import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionSystemException;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 任务相关的服务测试
@@ -28,6 +41,9 @@ class TaskServiceTest {
     @MockBean
     private TaskMapper taskMapper;
 
+    @Autowired
+    private TestTransactionManager transactionManager;
+
     @Test
     @DisplayName("当查询参数为null，创建失败")
     void should_throw_create_fail_when_task_null() {
@@ -36,6 +52,14 @@ class TaskServiceTest {
         Assertions.assertEquals(TaskErrorCode.CREATE_ERROR, exception.getErrorCode());
     }
 
+    @Test
+    @DisplayName("取消不存在或者已结束的任务，取消失败")
+    void should_throw_not_active_when_cancel_task_not_exist() {
+        TaskException exception = Assertions.assertThrows(TaskException.class,
+            () -> taskService.cancelTask(10086));
+        Assertions.assertEquals(TaskErrorCode.NOT_ACTIVE, exception.getErrorCode());
+    }
+
     @Test
     @DisplayName("创建并启动任务成功")
     void should() {
@@ -54,4 +78,115 @@ class TaskServiceTest {
         task = taskService.createAndStartTask(task);
         Assertions.assertEquals(1, task.getId());
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("批量创建任务时，每500个任务一条插入语句，所有任务都被启动")
+    @SuppressWarnings("unchecked")
+    void should_insert_by_batch_and_start_all_when_create_tasks() throws InterruptedException {
+        int size = 1200;
+        AtomicInteger nextId = new AtomicInteger(100);
+        Mockito.doAnswer(invocation -> {
+            ((List<Task>) invocation.getArgument(0)).forEach(task -> task.setId(nextId.getAndIncrement()));
+            return null;
+        }).when(taskMapper).addTasks(Mockito.anyList());
+        CountDownLatch finished = new CountDownLatch(size);
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            tasks.add(Task.builder().name("批量任务" + i).module(Module.TASK).taskOperate(new ITaskOperate() {
+                @Override
+                public void setTaskId(String taskId) {
+                }
+
+                @Override
+                public void run() {
+                    finished.countDown();
+                }
+            }).build());
+        }
+        taskService.createAndStartTasks(tasks);
+        Mockito.verify(taskMapper, Mockito.times(3)).addTasks(Mockito.anyList());
+        Assertions.assertEquals(100, tasks.get(0).getId());
+        Assertions.assertEquals(100 + size - 1, tasks.get(size - 1).getId());
+        Assertions.assertTrue(finished.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("批量创建任务时，等待队列放不下所有任务，写入数据库之前拒绝并回滚事务")
+    void should_throw_queue_full_before_insert_when_create_too_many_tasks() {
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 10001; i++) {
+            tasks.add(Task.builder().name("批量任务" + i).module(Module.TASK).build());
+        }
+        TaskException exception = Assertions.assertThrows(TaskException.class,
+            () -> taskService.createAndStartTasks(tasks));
+        Assertions.assertEquals(TaskErrorCode.QUEUE_FULL, exception.getErrorCode());
+        Mockito.verify(taskMapper, Mockito.never()).addTasks(Mockito.anyList());
+        Assertions.assertEquals(1, transactionManager.rollbackCount.get());
+    }
+
+    @Test
+    @DisplayName("批量创建任务时，事务提交失败，任务不会被启动")
+    void should_not_start_tasks_when_commit_fail() {
+        AtomicInteger started = new AtomicInteger();
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            tasks.add(Task.builder().name("批量任务" + i).module(Module.TASK).taskOperate(new ITaskOperate() {
+                @Override
+                public void setTaskId(String taskId) {
+                }
+
+                @Override
+                public void run() {
+                    started.incrementAndGet();
+                }
+            }).build());
+        }
+        transactionManager.commitFail = true;
+        try {
+            Assertions.assertThrows(TransactionSystemException.class, () -> taskService.createAndStartTasks(tasks));
+        } finally {
+            transactionManager.commitFail = false;
+        }
+        Mockito.verify(taskMapper).addTasks(Mockito.anyList());
+        Assertions.assertEquals(0, started.get());
+        Assertions.assertTrue(tasks.stream().allMatch(task -> task.getStatus() == TaskStatus.CREATE));
+    }
+
+    @TestConfiguration
+    static class TransactionConfig {
+        @Bean
+        TestTransactionManager transactionManager() {
+            return new TestTransactionManager();
+        }
+    }
+
+    /**
+     * 不连接数据库的事务管理器, 记录回滚次数, 可以模拟提交失败
+     */
+    static class TestTransactionManager extends AbstractPlatformTransactionManager {
+        private final AtomicInteger rollbackCount = new AtomicInteger();
+
+        private volatile boolean commitFail = false;
+
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+            if (commitFail) {
+                throw new TransactionSystemException("commit fail");
+            }
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+            rollbackCount.incrementAndGet();
+        }
+    }
+}
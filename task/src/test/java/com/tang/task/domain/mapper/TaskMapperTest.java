@@ -0,0 +1,77 @@
+package com.tang.task.domain.mapper;
+
+import com.tang.base.context.Module;
+import com.tang.task.domain.entity.Task;
+import org.apache.ibatis.builder.xml.XMLConfigBuilder;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.reflection.ParamNameResolver;
+import org.apache.ibatis.session.Configuration;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * 任务数据库映射测试, 使用真实的映射文件与主键生成器, 只模拟数据库返回的主键
+ *
+ * @author he
+ * @since 2024-01.09-21:30
+ */
+class TaskMapperTest {
+    @Test
+    @DisplayName("批量添加任务时，数据库生成的任务id按顺序回填到每个任务中")
+    void should_fill_generated_ids_in_order_when_add_tasks() throws IOException, SQLException, NoSuchMethodException {
+        Configuration configuration = createConfiguration();
+        MappedStatement statement = configuration.getMappedStatement(TaskMapper.class.getName() + ".addTasks");
+        List<Task> tasks = List.of(createTask("first"), createTask("second"), createTask("third"));
+        Object parameter = new ParamNameResolver(configuration, TaskMapper.class.getMethod("addTasks", List.class))
+            .getNamedParams(new Object[] {tasks});
+
+        statement.getKeyGenerator()
+            .processAfter(Mockito.mock(Executor.class), statement, mockGeneratedKeys(7, 8, 9), parameter);
+
+        Assertions.assertEquals(List.of(7, 8, 9), tasks.stream().map(Task::getId).toList());
+    }
+
+    private static Configuration createConfiguration() throws IOException {
+        Configuration configuration;
+        try (InputStream config = Resources.getResourceAsStream("config/mybatis-config.xml")) {
+            configuration = new XMLConfigBuilder(config).parse();
+        }
+        String mapper = "mapper/TaskMapper.xml";
+        try (InputStream xml = Resources.getResourceAsStream(mapper)) {
+            new XMLMapperBuilder(xml, configuration, mapper, configuration.getSqlFragments()).parse();
+        }
+        return configuration;
+    }
+
+    private static Statement mockGeneratedKeys(int... ids) throws SQLException {
+        ResultSetMetaData metaData = Mockito.mock(ResultSetMetaData.class);
+        Mockito.when(metaData.getColumnCount()).thenReturn(1);
+        Mockito.when(metaData.getColumnLabel(1)).thenReturn("id");
+        Mockito.when(metaData.getColumnName(1)).thenReturn("id");
+        ResultSet resultSet = Mockito.mock(ResultSet.class);
+        Mockito.when(resultSet.getMetaData()).thenReturn(metaData);
+        int[] row = {-1};
+        Mockito.when(resultSet.next()).thenAnswer(invocation -> ++row[0] < ids.length);
+        Mockito.when(resultSet.getInt(1)).thenAnswer(invocation -> ids[row[0]]);
+        Statement statement = Mockito.mock(Statement.class);
+        Mockito.when(statement.getGeneratedKeys()).thenReturn(resultSet);
+        return statement;
+    }
+
+    private static Task createTask(String name) {
+        return Task.builder().name(name).module(Module.TASK).build();
+    }
+}